@@ -0,0 +1,155 @@
+package main;
+
+/**
+ * Represents a histogram of latencies in microseconds, recorded by a single thread.
+ *
+ * Like an HdrHistogram, the values are counted in log-linear buckets: every power of two is split into
+ * {@value #SUB_BUCKETS} buckets of equal width, so the percentiles are accurate to within 1% whatever the
+ * magnitude of the latencies, in a fixed amount of memory. Every thread records into a histogram of its own;
+ * the histograms are added up once the threads are done.
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 7;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final long[] counts = new long[BUCKETS];
+	private long count = 0;
+	private long sum = 0;
+	private long max = 0;
+
+	/**
+	 * Records the given value. Negative values are recorded as 0.
+	 *
+	 * @param value
+	 * 		The value to record
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+
+		counts[indexOf(value)]++;
+		count++;
+		sum += value;
+		max = Math.max(max, value);
+	}
+
+	/**
+	 * Adds the values recorded by the given histogram to this one.
+	 *
+	 * @param other
+	 * 		The histogram to add
+	 */
+	public void add(Histogram other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] += other.counts[i];
+		}
+
+		count += other.count;
+		sum += other.sum;
+		max = Math.max(max, other.max);
+	}
+
+	/**
+	 * Returns the number of recorded values.
+	 *
+	 * @return
+	 * 		The number of values
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the mean of the recorded values.
+	 *
+	 * @return
+	 * 		The mean (0 if no value has been recorded)
+	 */
+	public double getMean() {
+		return (count == 0) ? 0 : (double) sum / count;
+	}
+
+	/**
+	 * Returns the largest recorded value.
+	 *
+	 * @return
+	 * 		The largest value (0 if no value has been recorded)
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Returns (an upper bound of) the value below which the given percentage of the recorded values lie.
+	 *
+	 * @param percentile
+	 * 		The percentage (e.g. 99.9)
+	 *
+	 * @return
+	 * 		The percentile (0 if no value has been recorded)
+	 */
+	public long getPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+
+			if (seen >= rank) {
+				return Math.min(upperBoundOf(i), max);
+			}
+		}
+
+		return max;
+	}
+
+	/**
+	 * Returns the index of the bucket counting the given value.
+	 *
+	 * @param value
+	 * 		The non-negative value
+	 *
+	 * @return
+	 * 		The index of the bucket
+	 */
+	private static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * Returns the largest value counted by the bucket with the given index.
+	 *
+	 * @param index
+	 * 		The index of the bucket
+	 *
+	 * @return
+	 * 		The largest value of the bucket
+	 */
+	private static long upperBoundOf(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+
+		int shift = index / SUB_BUCKETS - 1;
+		long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+
+		return (lower < 0) ? Long.MAX_VALUE : lower + (1L << shift) - 1;
+	}
+}
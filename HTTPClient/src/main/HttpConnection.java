@@ -176,9 +176,17 @@ public class HttpConnection {
 			String statusLine = readLine();
 			HashMap<String, String> headers = new HashMap<>();
 			
+			if (statusLine == null) {
+				return null;
+			}
+			
 			while (true) {
 				String line = readLine();
 				
+				if (line == null) {
+					return null;
+				}
+				
 				if (line.length() == 0) {
 					break;
 				}
@@ -310,9 +318,16 @@ public class HttpConnection {
 	 */
 	private byte[] readCount(int count) throws IOException {
 		byte[] body = new byte[count];
+		int offset = 0;
 		
-		for (int i = 0; i < count; i++) {
-			body[i] = (byte) response.read();
+		while (offset < count) {
+			int n = response.read(body, offset, count - offset);
+			
+			if (n < 0) {
+				throw new IOException("connection closed");
+			}
+			
+			offset += n;
 		}
 		
 		return body;
@@ -0,0 +1,346 @@
+package main;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Represents a load generator: a number of concurrent persistent connections sending a mix of requests
+ * to a server for a fixed duration, after which the throughput and the latency percentiles are reported.
+ *
+ * Two kinds of scheduling are supported:<br><br>
+ * <ul>
+ *  <li>closed-loop (default): every connection sends its next request as soon as it has received the previous
+ *      response, so the load adapts to the server; the latency is the time between sending a request and receiving its response</li>
+ *  <li>open-loop ("--rate=R"): the requests are sent at a constant total rate, spread over the connections. The latency is
+ *      measured from the time a request was scheduled to be sent, not from the time it was actually sent, so requests delayed
+ *      by a slow response are not left out of the results (no coordinated omission)</li>
+ * </ul>
+ * <br>
+ *
+ * The mix of requests is a comma-separated list of "METHOD:PATH:WEIGHT" entries (e.g. "GET:/index.html:9,PUT:/upload.txt:1").
+ * Every request picks an entry at random, proportionally to the weights. PUT and POST requests have a body of a fixed size.
+ *
+ * A connection that fails to connect or to receive a response is closed, and waits before it tries again: the delay starts
+ * at {@value #MIN_BACKOFF} ms and doubles with every consecutive failure, up to {@value #MAX_BACKOFF} ms, so a refused or
+ * restarting server is not flooded with connection attempts. Connect errors and response errors are reported apart.
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class LoadGenerator {
+
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+	private static final long MIN_BACKOFF = 10;
+	private static final long MAX_BACKOFF = 1000;
+
+	private final String host;
+	private final int port;
+	private final int connections;
+	private final long duration;
+	private final double rate;
+
+	private final String[] methods;
+	private final String[] paths;
+	private final int[] cumulativeWeights;
+	private final String body;
+
+	/**
+	 * Constructs a LoadGenerator from the given components.
+	 *
+	 * @param host
+	 * 		The host to connect to
+	 * @param port
+	 * 		The port number to connect to
+	 * @param connections
+	 * 		The number of concurrent connections
+	 * @param duration
+	 * 		The duration of the run in seconds
+	 * @param rate
+	 * 		The total number of requests per second to send or 0 to send them in a closed loop
+	 * @param mix
+	 * 		The mix of requests ("METHOD:PATH:WEIGHT,...")
+	 * @param bodySize
+	 * 		The size in bytes of the bodies of PUT and POST requests
+	 *
+	 * @throws IllegalArgumentException
+	 * 		If a parameter is invalid
+	 */
+	public LoadGenerator(String host, int port, int connections, int duration, double rate, String mix, int bodySize) throws IllegalArgumentException {
+		if (connections <= 0 || duration <= 0 || rate < 0 || bodySize < 0) {
+			throw new IllegalArgumentException("invalid load parameters.");
+		}
+
+		this.host = host;
+		this.port = port;
+		this.connections = connections;
+		this.duration = duration * 1_000_000_000L;
+		this.rate = rate;
+
+		String[] entries = mix.split(",");
+		this.methods = new String[entries.length];
+		this.paths = new String[entries.length];
+		this.cumulativeWeights = new int[entries.length];
+
+		int total = 0;
+
+		for (int i = 0; i < entries.length; i++) {
+			String[] parts = entries[i].trim().split(":");
+
+			if (parts.length < 2 || parts.length > 3 || !Arrays.asList("HEAD", "GET", "POST", "PUT").contains(parts[0])) {
+				throw new IllegalArgumentException("invalid request mix entry '" + entries[i] + "' (expected 'METHOD:PATH:WEIGHT').");
+			}
+
+			int weight;
+
+			try {
+				weight = (parts.length == 3) ? Integer.parseInt(parts[2]) : 1;
+			} catch (NumberFormatException e) {
+				weight = -1;
+			}
+
+			if (weight <= 0) {
+				throw new IllegalArgumentException("invalid weight in request mix entry '" + entries[i] + "'.");
+			}
+
+			total += weight;
+			methods[i] = parts[0];
+			paths[i] = parts[1];
+			cumulativeWeights[i] = total;
+		}
+
+		char[] characters = new char[bodySize];
+		Arrays.fill(characters, 'x');
+		this.body = new String(characters);
+	}
+
+	/**
+	 * Runs the load and prints the results.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void run() throws InterruptedException {
+		System.out.println(String.format(Locale.ROOT, "Running %ds test @ %s:%d with %d connections (%s)...",
+			duration / 1_000_000_000L, host, port, connections, (rate > 0) ? rate + " requests/s" : "closed loop"));
+
+		ArrayList<Worker> workers = new ArrayList<>();
+		long start = System.nanoTime();
+
+		for (int i = 0; i < connections; i++) {
+			Worker worker = new Worker(i, start);
+			workers.add(worker);
+			worker.start();
+		}
+
+		Histogram latencies = new Histogram();
+		TreeMap<Integer, Long> statusCodes = new TreeMap<>();
+		long connectErrors = 0;
+		long responseErrors = 0;
+
+		for (Worker worker : workers) {
+			worker.join();
+
+			latencies.add(worker.latencies);
+			connectErrors += worker.connectErrors;
+			responseErrors += worker.responseErrors;
+
+			for (int i = 0; i < worker.statusCodes.length; i++) {
+				if (worker.statusCodes[i] > 0) {
+					statusCodes.merge(i, worker.statusCodes[i], Long::sum);
+				}
+			}
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+
+		// print the results
+
+		System.out.println(String.format(Locale.ROOT, "%d requests in %.2fs, %d connect errors, %d response errors",
+			latencies.getCount(), seconds, connectErrors, responseErrors));
+		System.out.println(String.format(Locale.ROOT, "Throughput: %.1f requests/s", latencies.getCount() / seconds));
+		System.out.println("Status codes: " + statusCodes);
+		System.out.println("Latency (ms):");
+		System.out.println(String.format(Locale.ROOT, "  mean   %10.3f", latencies.getMean() / 1000));
+
+		for (double percentile : PERCENTILES) {
+			String name = "p" + ((percentile == Math.rint(percentile)) ? Integer.toString((int) percentile) : Double.toString(percentile));
+			System.out.println(String.format(Locale.ROOT, "  %-6s %10.3f", name, latencies.getPercentile(percentile) / 1000.0));
+		}
+
+		System.out.println(String.format(Locale.ROOT, "  max    %10.3f", latencies.getMax() / 1000.0));
+	}
+
+	/**
+	 * A thread sending requests over one connection, recording their latencies in a histogram of its own.
+	 */
+	private class Worker extends Thread {
+
+		private final long start;
+		private final long interval;
+		private final long offset;
+
+		private final Histogram latencies = new Histogram();
+		private final long[] statusCodes = new long[600];
+		private long connectErrors = 0;
+		private long responseErrors = 0;
+
+		private HttpConnection connection = null;
+
+		/**
+		 * Constructs the worker with the given index, starting at the given time.
+		 */
+		private Worker(int index, long start) {
+			this.start = start;
+
+			// in an open loop, every connection sends one request per interval, the connections being evenly spread over it
+
+			this.interval = (rate > 0) ? (long) (connections * 1e9 / rate) : 0;
+			this.offset = (rate > 0) ? (long) (index * 1e9 / rate) : 0;
+		}
+
+		@Override
+		public void run() {
+			long end = start + duration;
+			int failures = 0;
+
+			for (long k = 0; ; k++) {
+				long scheduled;
+
+				if (rate > 0) {
+					scheduled = start + offset + k * interval;
+
+					if (scheduled >= end) {
+						break;
+					}
+
+					// wait for the scheduled time, unless the previous response made this request late already
+
+					for (long now = System.nanoTime(); now < scheduled; now = System.nanoTime()) {
+						LockSupport.parkNanos(scheduled - now);
+					}
+				}
+				else {
+					scheduled = System.nanoTime();
+
+					if (scheduled >= end) {
+						break;
+					}
+				}
+
+				if (connection == null && !connect()) {
+					connectErrors++;
+					backOff(++failures, end);
+					continue;
+				}
+
+				HttpResponse response = send();
+				long latency = System.nanoTime() - scheduled;
+
+				if (response == null) {
+					responseErrors++;
+					close();
+					backOff(++failures, end);
+					continue;
+				}
+
+				failures = 0;
+				latencies.record(latency / 1000);
+
+				int statusCode = response.getStatusCode();
+
+				if (statusCode >= 0 && statusCode < statusCodes.length) {
+					statusCodes[statusCode]++;
+				}
+
+				String header = response.getHeaders().get("connection");
+
+				if (header != null && header.equalsIgnoreCase("close")) {
+					close();
+				}
+			}
+
+			close();
+		}
+
+		/**
+		 * Opens a new connection.
+		 *
+		 * @return
+		 * 		Whether the connection was opened
+		 */
+		private boolean connect() {
+			try {
+				connection = new HttpConnection(host, port);
+				return true;
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+		/**
+		 * Waits before the next attempt after the given number of consecutive failures, but not past the given end of the run.
+		 *
+		 * @param failures
+		 * 		The number of consecutive failed attempts
+		 * @param end
+		 * 		The end of the run (see {@link System#nanoTime()})
+		 */
+		private void backOff(int failures, long end) {
+			long delay = Math.min(MIN_BACKOFF << Math.min(failures - 1, 7), MAX_BACKOFF) * 1_000_000L;
+			long deadline = Math.min(System.nanoTime() + delay, end);
+
+			for (long now = System.nanoTime(); now < deadline; now = System.nanoTime()) {
+				LockSupport.parkNanos(deadline - now);
+			}
+		}
+
+		/**
+		 * Sends a request picked from the mix over the open connection.
+		 *
+		 * @return
+		 * 		The response or null if something went wrong
+		 */
+		private HttpResponse send() {
+			int pick = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+			int i = 0;
+
+			while (cumulativeWeights[i] <= pick) {
+				i++;
+			}
+
+			switch (methods[i]) {
+			case "HEAD":
+				return connection.HEAD(paths[i]);
+
+			case "GET":
+				return connection.GET(paths[i]);
+
+			case "POST":
+				return connection.POST(paths[i], body);
+
+			default:
+				return connection.PUT(paths[i], body);
+			}
+		}
+
+		/**
+		 * Closes the connection, if any, so the next request opens a new one.
+		 */
+		private void close() {
+			if (connection == null) {
+				return;
+			}
+
+			try {
+				connection.close();
+			} catch (IOException e) {}
+
+			connection = null;
+		}
+	}
+}
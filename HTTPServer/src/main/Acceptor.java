@@ -0,0 +1,202 @@
+package main;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Represents an acceptor: a loop accepting the connections of a listening socket and handing them out
+ * round-robin to a number of worker groups (e.g. a thread pool or a set of event loops).
+ *
+ * The server can accept connections on several threads ("--acceptors=N"), so a storm of short-lived connections is
+ * not limited by a single accept loop. Where the platform supports SO_REUSEPORT (Linux with Java 9 or later), every
+ * acceptor owns a listening socket of its own, bound to the same port, and a worker group of its own: the kernel
+ * spreads the incoming connections over the sockets, so the acceptors share nothing but the connection limit.
+ * Elsewhere a single acceptor hands the connections out to the worker groups, each of which queues them for its own threads.
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class Acceptor implements Runnable {
+
+	private static final long BACKOFF_MILLIS = 100;
+
+	private final HttpServer server;
+	private final ServerSocketChannel serverChannel;
+	private final WorkerGroup[] groups;
+	private int next = 0;
+
+	/**
+	 * Constructs an Acceptor from the given components.
+	 *
+	 * @param server
+	 * 		The {@link HttpServer} the acceptor belongs to
+	 * @param serverChannel
+	 * 		The (blocking) listening channel
+	 * @param groups
+	 * 		The worker groups the accepted connections are handed out to
+	 */
+	public Acceptor(HttpServer server, ServerSocketChannel serverChannel, WorkerGroup... groups) {
+		this.server = server;
+		this.serverChannel = serverChannel;
+		this.groups = groups;
+	}
+
+	/**
+	 * Opens the listening sockets of the given number of acceptors on the given port: one per acceptor if the
+	 * platform supports SO_REUSEPORT, a single one otherwise.
+	 *
+	 * @param port
+	 * 		The port number to listen on
+	 * @param count
+	 * 		The number of acceptors
+	 * @param backlog
+	 * 		The maximum number of pending connections per socket (0 for the default)
+	 *
+	 * @return
+	 * 		The bound listening channels
+	 *
+	 * @throws IOException
+	 */
+	public static ServerSocketChannel[] listen(int port, int count, int backlog) throws IOException {
+		ServerSocketChannel first = ServerSocketChannel.open();
+		SocketOption<Boolean> reusePort = (count > 1) ? getReusePortOption() : null;
+
+		if (reusePort == null || !first.supportedOptions().contains(reusePort)) {
+			first.bind(new InetSocketAddress(port), backlog);
+			return new ServerSocketChannel[] { first };
+		}
+
+		ServerSocketChannel[] channels = new ServerSocketChannel[count];
+		channels[0] = first;
+
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				channels[i] = ServerSocketChannel.open();
+			}
+
+			channels[i].setOption(reusePort, true);
+			channels[i].bind(new InetSocketAddress(port), backlog);
+		}
+
+		return channels;
+	}
+
+	/**
+	 * Accepts connections on the given listening channels: with an acceptor per channel and worker group if there are
+	 * as many channels as groups, with a single acceptor handing out to all groups otherwise. The first acceptor runs
+	 * on the current thread, so this call does not return unless the listening channel is closed.
+	 *
+	 * @param server
+	 * 		The {@link HttpServer} the acceptors belong to
+	 * @param channels
+	 * 		The channels returned by {@link #listen(int, int, int)}
+	 * @param groups
+	 * 		The worker groups
+	 */
+	public static void serve(HttpServer server, ServerSocketChannel[] channels, WorkerGroup[] groups) {
+		if (channels.length != groups.length) {
+			new Acceptor(server, channels[0], groups).run();
+			return;
+		}
+
+		for (int i = 1; i < channels.length; i++) {
+			Thread thread = new Thread(new Acceptor(server, channels[i], groups[i]), "acceptor-" + i);
+			thread.start();
+		}
+
+		new Acceptor(server, channels[0], groups[0]).run();
+	}
+
+	/**
+	 * Returns a description of the acceptors of the given channels and groups, to be shown when the server starts.
+	 *
+	 * @param channels
+	 * 		The number of listening channels
+	 * @param groups
+	 * 		The number of worker groups
+	 *
+	 * @return
+	 * 		The description (e.g. ", 4 acceptors with SO_REUSEPORT"), empty for a single acceptor and group
+	 */
+	public static String describe(int channels, int groups) {
+		if (channels > 1) {
+			return ", " + channels + " acceptors with SO_REUSEPORT";
+		}
+
+		return (groups > 1) ? ", 1 acceptor handing off to " + groups + " groups" : "";
+	}
+
+	/**
+	 * Accepts connections until the listening channel is closed, waiting whenever the server has too many open connections.
+	 * A connection that cannot be handed out is closed, and the acceptor pauses for {@value #BACKOFF_MILLIS} ms after a
+	 * failed accept (e.g. when the process has run out of file descriptors), so neither stops the acceptor.
+	 */
+	@Override
+	public void run() {
+		while (serverChannel.isOpen()) {
+			server.acquireConnection();
+
+			SocketChannel channel = null;
+
+			try {
+				channel = serverChannel.accept();
+				groups[next].dispatch(channel);
+				next = (next + 1) % groups.length;
+			} catch (IOException e) {
+				server.releaseConnection();
+
+				if (channel != null) {
+					try {
+						channel.close();
+					} catch (IOException f) {}
+				}
+				else if (serverChannel.isOpen()) {
+					System.out.println("Error: failed to accept a connection (" + e.getMessage() + ").");
+
+					try {
+						Thread.sleep(BACKOFF_MILLIS);
+					} catch (InterruptedException f) {
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the SO_REUSEPORT socket option.
+	 *
+	 * @return
+	 * 		The option or null if it is unavailable (before Java 9)
+	 */
+	@SuppressWarnings("unchecked")
+	private static SocketOption<Boolean> getReusePortOption() {
+		try {
+			// looked up reflectively, so the server still builds and runs on Java 8
+
+			return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * A group of threads handling the connections handed out by an acceptor.
+	 */
+	public interface WorkerGroup {
+
+		/**
+		 * Hands the given accepted connection over to the group.
+		 *
+		 * @param channel
+		 * 		The accepted (blocking) channel
+		 *
+		 * @throws IOException
+		 */
+		void dispatch(SocketChannel channel) throws IOException;
+	}
+}
@@ -0,0 +1,413 @@
+package main;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Represents the access log of the server: one line per request in the Common or Combined Log Format, e.g.<br><br>
+ * 127.0.0.1 - - [10/Oct/2000:13:55:36 +0200] "GET /index.html HTTP/1.1" 200 2326 "-" "curl/7.68.0"<br><br>
+ *
+ * The connections never write the log themselves: they put a record in a lock-free ring buffer and a background
+ * thread formats the records and writes them in batches, to standard output ("-") or to a file that is rotated
+ * once it reaches a maximum size ("access.log" is renamed to "access.log.1", "access.log.1" to "access.log.2", ...).
+ * If the ring buffer is full, because the disk cannot keep up, records are dropped rather than slowing down the connections.
+ *
+ * Optionally, the first bytes of the body of PUT and POST requests are logged as well, as an extra quoted field.
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class AccessLog {
+
+	private static final int CAPACITY = 8192;
+	private static final long IDLE_WAIT = 10_000_000L;
+
+	private static final DateTimeFormatter LOG_DATE = DateTimeFormatter
+		.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US)
+		.withZone(ZoneId.systemDefault());
+
+	private final Path file;
+	private final boolean combined;
+	private final int bodySize;
+	private final long maxSize;
+	private final int maxFiles;
+
+	// the ring buffer: producers claim a slot by advancing the tail, the writer thread empties the slots from the head
+
+	private final AtomicReferenceArray<Record> records = new AtomicReferenceArray<>(CAPACITY);
+	private final AtomicLong tail = new AtomicLong();
+	private volatile long head = 0;
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final Thread thread;
+	private volatile boolean stopping = false;
+
+	// the state of the writer thread
+
+	private OutputStream output;
+	private long size;
+	private final StringBuilder batch = new StringBuilder();
+	private long dateSecond = -1;
+	private String date;
+
+	/**
+	 * Constructs an AccessLog and starts the thread writing it.
+	 *
+	 * @param destination
+	 * 		The path of the log file or "-" for standard output
+	 * @param combined
+	 * 		Whether to use the Combined Log Format (with the "Referer" and "User-Agent" headers) rather than the Common one
+	 * @param bodySize
+	 * 		The number of bytes of request bodies to log (0 not to log bodies)
+	 * @param maxSize
+	 * 		The size in bytes from which the log file is rotated (0 never to rotate it)
+	 * @param maxFiles
+	 * 		The number of rotated log files to keep
+	 *
+	 * @throws IOException
+	 */
+	public AccessLog(String destination, boolean combined, int bodySize, long maxSize, int maxFiles) throws IOException {
+		this.file = destination.equals("-") ? null : Paths.get(destination);
+		this.combined = combined;
+		this.bodySize = bodySize;
+		this.maxSize = maxSize;
+		this.maxFiles = maxFiles;
+
+		open();
+
+		thread = new Thread(this::run, "access-log");
+		thread.setDaemon(true);
+		thread.start();
+
+		// the records still in the ring buffer are written when the server is stopped
+
+		Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
+	}
+
+	/**
+	 * Reads the part of the body of the given request that is logged. Has to be called before the response is written,
+	 * as the body may be moved to its destination by then.
+	 *
+	 * @param request
+	 * 		The request
+	 *
+	 * @return
+	 * 		The first bytes of the body or null if the body is not logged
+	 */
+	public byte[] readBody(HttpRequest request) {
+		if (bodySize == 0 || !request.hasBody()) {
+			return null;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(bodySize);
+
+		try (FileChannel channel = FileChannel.open(request.getBody(), StandardOpenOption.READ)) {
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {}
+		} catch (IOException e) {
+			return null;
+		}
+
+		byte[] bytes = new byte[buffer.position()];
+		System.arraycopy(buffer.array(), 0, bytes, 0, bytes.length);
+
+		return bytes;
+	}
+
+	/**
+	 * Logs a request. This call never blocks: the record is written by the thread of the log later on.
+	 *
+	 * @param client
+	 * 		The address of the client
+	 * @param request
+	 * 		The request or null if it could not be parsed
+	 * @param statusCode
+	 * 		The status code of the response
+	 * @param length
+	 * 		The length of the body of the response in bytes
+	 * @param body
+	 * 		The logged part of the body of the request (see {@link #readBody(HttpRequest)}) or null
+	 */
+	public void log(String client, HttpRequest request, int statusCode, long length, byte[] body) {
+		Record record = new Record();
+		record.time = System.currentTimeMillis();
+		record.client = client;
+		record.statusCode = statusCode;
+		record.length = length;
+		record.body = body;
+
+		if (request != null) {
+			record.requestLine = request.getRequestLine();
+
+			if (combined) {
+				record.referer = request.getHeader("referer");
+				record.userAgent = request.getHeader("user-agent");
+			}
+		}
+
+		// claim a slot, unless the writer thread has fallen a full ring buffer behind
+
+		while (true) {
+			long index = tail.get();
+
+			if (index - head >= CAPACITY) {
+				dropped.incrementAndGet();
+				return;
+			}
+
+			if (tail.compareAndSet(index, index + 1)) {
+				records.set((int) index & (CAPACITY - 1), record);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of records dropped because the ring buffer was full.
+	 *
+	 * @return
+	 * 		The number of dropped records
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Runs the thread of the log: writes the records in the ring buffer in batches, waiting a little while it is empty.
+	 */
+	private void run() {
+		while (true) {
+			boolean stop = stopping;
+
+			try {
+				if (drain() > 0) {
+					continue;
+				}
+			} catch (IOException e) {
+				System.out.println("Error: couldn't write access log (" + e.getMessage() + ").");
+			}
+
+			if (stop) {
+				return;
+			}
+
+			LockSupport.parkNanos(IDLE_WAIT);
+		}
+	}
+
+	/**
+	 * Stops the thread of the log once it has written the remaining records.
+	 */
+	private void stop() {
+		stopping = true;
+		LockSupport.unpark(thread);
+
+		try {
+			thread.join(1000);
+		} catch (InterruptedException e) {}
+	}
+
+	/**
+	 * Formats the records in the ring buffer and writes them as one batch.
+	 *
+	 * @return
+	 * 		The number of records written
+	 *
+	 * @throws IOException
+	 */
+	private int drain() throws IOException {
+		int count = 0;
+		long index = head;
+
+		while (count < CAPACITY) {
+			int slot = (int) index & (CAPACITY - 1);
+			Record record = records.get(slot);
+
+			// a claimed slot may not be filled yet: its record is part of the next batch
+
+			if (record == null) {
+				break;
+			}
+
+			records.set(slot, null);
+			index++;
+			head = index;
+
+			format(record);
+			count++;
+		}
+
+		if (count == 0) {
+			return 0;
+		}
+
+		byte[] bytes = batch.toString().getBytes(StandardCharsets.UTF_8);
+		batch.setLength(0);
+
+		output.write(bytes);
+		output.flush();
+		size += bytes.length;
+
+		if (file != null && maxSize > 0 && size >= maxSize) {
+			rotate();
+		}
+
+		return count;
+	}
+
+	/**
+	 * Appends the line of the given record to the batch.
+	 *
+	 * @param record
+	 * 		The record to format
+	 */
+	private void format(Record record) {
+		long second = record.time / 1000;
+
+		if (second != dateSecond) {
+			dateSecond = second;
+			date = LOG_DATE.format(Instant.ofEpochMilli(record.time));
+		}
+
+		batch.append(record.client).append(" - - [").append(date).append("] ");
+		appendQuoted(record.requestLine);
+		batch.append(' ').append(record.statusCode).append(' ');
+
+		if (record.length > 0) {
+			batch.append(record.length);
+		} else {
+			batch.append('-');
+		}
+
+		if (combined) {
+			batch.append(' ');
+			appendQuoted(record.referer);
+			batch.append(' ');
+			appendQuoted(record.userAgent);
+		}
+
+		if (record.body != null) {
+			batch.append(" \"");
+
+			for (byte b : record.body) {
+				appendEscaped((char) (b & 0xFF));
+			}
+
+			batch.append('"');
+		}
+
+		batch.append('\n');
+	}
+
+	/**
+	 * Appends the given value between quotes, or "-" (between quotes) if it is null.
+	 */
+	private void appendQuoted(String value) {
+		if (value == null) {
+			batch.append("\"-\"");
+			return;
+		}
+
+		batch.append('"');
+
+		for (int i = 0; i < value.length(); i++) {
+			appendEscaped(value.charAt(i));
+		}
+
+		batch.append('"');
+	}
+
+	/**
+	 * Appends the given character, escaping quotes, backslashes and non-printable characters (as "\xHH"),
+	 * so a field can never end a line or a quoted field early.
+	 */
+	private void appendEscaped(char c) {
+		if (c == '"' || c == '\\') {
+			batch.append('\\').append(c);
+		}
+		else if (c < 0x20 || c >= 0x7F) {
+			batch.append("\\x").append(Character.forDigit(c >> 4 & 0xF, 16)).append(Character.forDigit(c & 0xF, 16));
+		}
+		else {
+			batch.append(c);
+		}
+	}
+
+	/**
+	 * Opens the log file for appending (or standard output).
+	 *
+	 * @throws IOException
+	 */
+	private void open() throws IOException {
+		if (file == null) {
+			output = System.out;
+			return;
+		}
+
+		Path parent = file.toAbsolutePath().getParent();
+
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+
+		output = new FileOutputStream(file.toFile(), true);
+		size = Files.size(file);
+	}
+
+	/**
+	 * Rotates the log file: shifts the rotated files by one, dropping the oldest one, and starts a new file.
+	 *
+	 * @throws IOException
+	 */
+	private void rotate() throws IOException {
+		output.close();
+
+		Files.deleteIfExists(Paths.get(file + "." + maxFiles));
+
+		for (int i = maxFiles - 1; i >= 1; i--) {
+			Path rotated = Paths.get(file + "." + i);
+
+			if (Files.exists(rotated)) {
+				Files.move(rotated, Paths.get(file + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+
+		if (maxFiles > 0) {
+			Files.move(file, Paths.get(file + ".1"), StandardCopyOption.REPLACE_EXISTING);
+		} else {
+			Files.delete(file);
+		}
+
+		open();
+	}
+
+	/**
+	 * A logged request, formatted by the thread of the log.
+	 */
+	private static class Record {
+
+		private long time;
+		private String client;
+		private String requestLine;
+		private int statusCode;
+		private long length;
+		private String referer;
+		private String userAgent;
+		private byte[] body;
+	}
+}
@@ -0,0 +1,293 @@
+package main;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * The check of the number of bytes the server allocates per request, to catch regressions of its hot paths.
+ *
+ * It starts the server in-process, sends thousands of requests over one persistent loopback connection and measures
+ * the bytes allocated by the threads of the server (all threads but the one sending the requests) with the threads'
+ * allocation counters. The result of every kind of request is compared to the budget in a properties file
+ * (default "allocation-budget.properties"); the program exits with status 1 if a budget is exceeded.
+ *
+ * Usage: java main.AllocationCheck DIRECTORY [--requests=N] [--warmup=N] [--budget=FILE] [server options]<br>
+ * where DIRECTORY is a directory in 'files/' containing an "index.html" (e.g. "site").
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class AllocationCheck {
+
+	private static final String[] CHECKS = { "get", "not-modified" };
+
+	private final SocketChannel channel;
+	private final ByteBuffer input = ByteBuffer.allocate(65536);
+	private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	/**
+	 * The main function of the check.
+	 *
+	 * @param args
+	 * 		The command-line arguments (the options of the server are passed on to it)
+	 *
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		ServerConfig config;
+		int port;
+
+		// the server listens on a free port
+
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+
+		// all requests are sent over one connection, so it is never closed by the server (unless the options say otherwise)
+
+		try {
+			String[] serverArgs = new String[args.length + 2];
+			serverArgs[0] = "--max-requests=0";
+			System.arraycopy(args, 0, serverArgs, 1, args.length);
+			serverArgs[args.length + 1] = Integer.toString(port);
+
+			config = new ServerConfig(serverArgs);
+		} catch (IllegalArgumentException e) {
+			System.out.println("Error: " + e.getMessage());
+			System.exit(2);
+			return;
+		}
+
+		int requests = config.getIntOption("requests", 20000);
+		int warmup = config.getIntOption("warmup", 20000);
+		Properties budget = new Properties();
+
+		try (InputStream in = new FileInputStream(config.getOption("budget", "allocation-budget.properties"))) {
+			budget.load(in);
+		} catch (IOException e) {
+			System.out.println("Error: couldn't read budget file (" + e.getMessage() + ").");
+			System.exit(2);
+		}
+
+		startServer(config);
+
+		AllocationCheck check = new AllocationCheck(port);
+		boolean passed = true;
+
+		String get = "GET /index.html HTTP/1.1\r\nHost: localhost\r\n\r\n";
+
+		for (String name : CHECKS) {
+			String text = get;
+
+			// the entity tag of the resource makes the conditional request (it is taken once the file has been hashed,
+			// after the other checks, as the first responses carry the version tag)
+
+			if (name.equals("not-modified")) {
+				text = "GET /index.html HTTP/1.1\r\nHost: localhost\r\nIf-None-Match: " + check.send(get) + "\r\n\r\n";
+			}
+
+			byte[] request = text.getBytes(StandardCharsets.US_ASCII);
+
+			for (int i = 0; i < warmup; i++) {
+				check.send(request);
+			}
+
+			long before = check.getServerAllocatedBytes();
+
+			for (int i = 0; i < requests; i++) {
+				check.send(request);
+			}
+
+			double perRequest = (double) (check.getServerAllocatedBytes() - before) / requests;
+			String limit = budget.getProperty(name);
+
+			if (limit == null) {
+				System.out.println(String.format(Locale.ROOT, "%-14s %10.1f B/request (no budget)", name, perRequest));
+				continue;
+			}
+
+			boolean ok = perRequest <= Double.parseDouble(limit.trim());
+			passed &= ok;
+
+			System.out.println(String.format(Locale.ROOT, "%-14s %10.1f B/request (budget %s) %s", name, perRequest, limit.trim(), ok ? "OK" : "EXCEEDED"));
+		}
+
+		System.exit(passed ? 0 : 1);
+	}
+
+	/**
+	 * Starts the server with the given configuration on a daemon thread and waits until it accepts connections.
+	 */
+	static void startServer(ServerConfig config) throws IOException {
+		HttpServer server = new HttpServer(config);
+
+		Thread thread = new Thread(() -> {
+			try {
+				server.start();
+			} catch (IOException | IllegalArgumentException e) {
+				System.out.println("Error: " + e.getMessage());
+				System.exit(2);
+			}
+		}, "server");
+
+		thread.setDaemon(true);
+		thread.start();
+
+		for (int i = 0; ; i++) {
+			try {
+				SocketChannel.open(new InetSocketAddress("localhost", config.getPort())).close();
+				return;
+			} catch (IOException e) {
+				if (i == 100) {
+					throw e;
+				}
+			}
+
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {}
+		}
+	}
+
+	/**
+	 * Constructs an AllocationCheck connected to the server on the given port.
+	 */
+	private AllocationCheck(int port) throws IOException {
+		channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+	}
+
+	/**
+	 * Returns the number of bytes allocated by all threads but the current one (the threads of the server).
+	 */
+	private long getServerAllocatedBytes() {
+		long current = Thread.currentThread().getId();
+		long[] ids = threads.getAllThreadIds();
+		long[] allocated = threads.getThreadAllocatedBytes(ids);
+		long total = 0;
+
+		for (int i = 0; i < ids.length; i++) {
+			if (ids[i] != current && allocated[i] > 0) {
+				total += allocated[i];
+			}
+		}
+
+		return total;
+	}
+
+	/**
+	 * Sends the given request and reads its response.
+	 */
+	private String send(String request) throws IOException {
+		return send(request.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Sends the given request and reads its response.
+	 *
+	 * @return
+	 * 		The value of the "ETag" header of the response or null if it has none
+	 *
+	 * @throws IOException
+	 */
+	private String send(byte[] request) throws IOException {
+		ByteBuffer output = ByteBuffer.wrap(request);
+
+		while (output.hasRemaining()) {
+			channel.write(output);
+		}
+
+		// read the header section, then the body (a GET response always has a "Content-Length")
+
+		input.clear();
+		int headerEnd;
+
+		while ((headerEnd = indexOf("\r\n\r\n", 0, input.position())) < 0) {
+			read();
+		}
+
+		int end = headerEnd + 4 + (int) parseHeader("\r\nContent-Length: ", headerEnd);
+
+		while (input.position() < end) {
+			read();
+		}
+
+		if (input.position() > end) {
+			throw new IOException("unexpected bytes after the response");
+		}
+
+		int tag = indexOf("\r\nETag: ", 0, headerEnd);
+
+		if (tag < 0) {
+			return null;
+		}
+
+		int tagEnd = indexOf("\r\n", tag + 2, headerEnd + 2);
+		return new String(input.array(), tag + 8, tagEnd - tag - 8, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Reads the available bytes into the input buffer.
+	 */
+	private void read() throws IOException {
+		if (channel.read(input) < 0) {
+			throw new IOException("connection closed by the server");
+		}
+	}
+
+	/**
+	 * Returns the numeric value of the given header in the header section ending at the given index (0 if absent).
+	 */
+	private long parseHeader(String prefix, int headerEnd) {
+		int start = indexOf(prefix, 0, headerEnd);
+
+		if (start < 0) {
+			return 0;
+		}
+
+		long value = 0;
+		byte[] bytes = input.array();
+
+		for (int i = start + prefix.length(); bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+			value = 10 * value + (bytes[i] - '0');
+		}
+
+		return value;
+	}
+
+	/**
+	 * Returns the index of the given ASCII string in the input buffer between the given indices, or -1 if it is absent.
+	 */
+	private int indexOf(String string, int from, int to) {
+		for (int i = from; i + string.length() <= to; i++) {
+			if (startsWith(string, i)) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns whether the given ASCII string occurs in the input buffer at the given index.
+	 */
+	private boolean startsWith(String string, int index) {
+		byte[] bytes = input.array();
+
+		for (int i = 0; i < string.length(); i++) {
+			if (bytes[index + i] != string.charAt(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
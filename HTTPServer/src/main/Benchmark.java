@@ -0,0 +1,372 @@
+package main;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The microbenchmark of the hot paths of the server: parsing requests, resolving MIME types and writing responses.
+ *
+ * The benchmarks run in memory: the requests are read from a channel replaying a fixed byte sequence and the
+ * responses are written to a {@link ResponseBuffer} that is cleared afterwards, so neither the network nor the
+ * file system is measured (the resource is served from the content cache). Like JMH, every benchmark is run for a
+ * number of warmup iterations and then for a number of measured iterations of a fixed duration, and reports the
+ * throughput in requests per second and the bytes allocated per request (measured with the thread's allocation counter).
+ *
+ * Usage: java main.Benchmark DIRECTORY [--warmup=N] [--iterations=N] [--time=MS] [--filter=TEXT]<br>
+ * where DIRECTORY is a directory in 'files/' containing an "index.html" (e.g. "site").
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class Benchmark {
+
+	private static final int MAX_HEADER_SIZE = 65536;
+	private static final int PIPELINE_DEPTH = 16;
+	private static final int PUT_SIZE = 1 << 20;
+	private static final int MAX_READ = 65536;
+	private static final int OPS_PER_CHECK = 64;
+	private static final String FORMAT = "%-22s %5d %14.1f %12.1f %12.1f";
+
+	private static final String SMALL_GET = "GET /index.html HTTP/1.1\r\nHost: localhost\r\n\r\n";
+	private static final String NOT_MODIFIED_GET = "GET /index.html HTTP/1.1\r\nHost: localhost\r\n"
+		+ "If-Modified-Since: Fri, 01 Jan 2100 00:00:00 GMT\r\n\r\n";
+	private static final String[] NAMES = { "/index.html", "/docs/readme.txt", "/images/logo.png", "/photos/2016/beach.jpg",
+		"/spinner.gif", "/scan.bmp", "/music/song.mp3", "/video/big.mp4", "/downloads/archive.tar.gz", "/LICENSE" };
+
+	private final HttpServer server;
+	private final ResponseBuffer response;
+	private final HttpConnection connection;
+
+	private final List<String> names = new ArrayList<>();
+	private final List<Operation> operations = new ArrayList<>();
+
+	// the results of the operations that return nothing else, so they cannot be optimized away
+
+	private int sink = 0;
+
+	/**
+	 * The main function of the benchmark program.
+	 *
+	 * @param args
+	 * 		The command-line arguments
+	 *
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		ServerConfig config;
+
+		try {
+			config = new ServerConfig(args);
+		} catch (IllegalArgumentException e) {
+			System.out.println("Error: " + e.getMessage());
+			return;
+		}
+
+		int warmup = config.getIntOption("warmup", 3);
+		int iterations = config.getIntOption("iterations", 5);
+		long time = config.getIntOption("time", 1000) * 1_000_000L;
+		String filter = config.getOption("filter", "");
+
+		Benchmark benchmark = new Benchmark(new HttpServer(config));
+
+		System.out.println(String.format(Locale.ROOT, "%-22s %5s %14s %12s %12s", "Benchmark", "Cnt", "Score (op/s)", "Error", "Alloc (B/op)"));
+
+		for (int i = 0; i < benchmark.names.size(); i++) {
+			String name = benchmark.names.get(i);
+
+			if (name.contains(filter)) {
+				benchmark.run(name, benchmark.operations.get(i), warmup, iterations, time);
+			}
+		}
+	}
+
+	/**
+	 * Constructs the benchmarks of the given server.
+	 *
+	 * @param server
+	 * 		The server whose document root contains the requested resource
+	 *
+	 * @throws IOException
+	 */
+	private Benchmark(HttpServer server) throws IOException {
+		this.server = server;
+		this.response = new ResponseBuffer(server.getBufferPool());
+
+		// the connection is never connected: its responses are only written to its buffer
+
+		this.connection = new HttpConnection(SocketChannel.open(), response, server);
+
+		StringBuilder headers = new StringBuilder("GET /index.html HTTP/1.1\r\nHost: localhost\r\n");
+
+		for (int i = 0; i < 40; i++) {
+			headers.append("X-Header-").append(i).append(": value-").append(i).append("-abcdefghijklmnopqrstuvwxyz\r\n");
+		}
+
+		headers.append("\r\n");
+
+		StringBuilder pipeline = new StringBuilder();
+
+		for (int i = 0; i < PIPELINE_DEPTH; i++) {
+			pipeline.append(SMALL_GET);
+		}
+
+		String put = "PUT /upload.bin HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + PUT_SIZE + "\r\n\r\n";
+		byte[] putRequest = new byte[put.length() + PUT_SIZE];
+		System.arraycopy(put.getBytes(StandardCharsets.US_ASCII), 0, putRequest, 0, put.length());
+
+		add("parse.small-get", parse(SMALL_GET.getBytes(StandardCharsets.US_ASCII), 1));
+		add("parse.many-headers", parse(headers.toString().getBytes(StandardCharsets.US_ASCII), 1));
+		add("parse.pipelined", parse(pipeline.toString().getBytes(StandardCharsets.US_ASCII), PIPELINE_DEPTH));
+		add("parse.large-put", parse(putRequest, 1));
+		add("resolve.mime", mime(NAMES));
+		add("write.cached-get", write(SMALL_GET));
+		add("write.not-modified", write(NOT_MODIFIED_GET));
+		add("request.small-get", handle(SMALL_GET.getBytes(StandardCharsets.US_ASCII), 1));
+		add("request.pipelined", handle(pipeline.toString().getBytes(StandardCharsets.US_ASCII), PIPELINE_DEPTH));
+	}
+
+	/**
+	 * Adds a benchmark.
+	 */
+	private void add(String name, Operation operation) {
+		names.add(name);
+		operations.add(operation);
+	}
+
+	/**
+	 * Returns an operation reading the given requests and parsing them (consuming their bodies).
+	 *
+	 * @param requests
+	 * 		The requests read by one operation
+	 * @param count
+	 * 		The number of requests
+	 *
+	 * @return
+	 * 		The operation
+	 */
+	private Operation parse(byte[] requests, int count) {
+		RequestParser parser = new RequestParser(server.getBufferPool(), MAX_HEADER_SIZE);
+		HttpRequest request = new HttpRequest();
+		Replay input = new Replay(requests);
+
+		return () -> {
+			for (int i = 0; i < count; i++) {
+				read(parser, request, input);
+				parser.release();
+			}
+
+			return count;
+		};
+	}
+
+	/**
+	 * Returns an operation resolving the MIME types of the given resource names (see {@link FileInfo#getMIME(String)}).
+	 * The cached and end-to-end benchmarks do not measure it, as the MIME type of an indexed file is resolved once.
+	 *
+	 * @param names
+	 * 		The names resolved by one operation
+	 *
+	 * @return
+	 * 		The operation
+	 */
+	private Operation mime(String[] names) {
+		return () -> {
+			for (String name : names) {
+				sink += FileInfo.getMIME(name).length();
+			}
+
+			return names.length;
+		};
+	}
+
+	/**
+	 * Returns an operation writing the response to the given request, which is parsed once.
+	 *
+	 * @param request
+	 * 		The request
+	 *
+	 * @return
+	 * 		The operation
+	 *
+	 * @throws IOException
+	 */
+	private Operation write(String request) throws IOException {
+		RequestParser parser = new RequestParser(server.getBufferPool(), MAX_HEADER_SIZE);
+		HttpRequest parsed = new HttpRequest();
+
+		// the request stays in use, so it can be answered over and over
+
+		read(parser, parsed, new Replay(request.getBytes(StandardCharsets.US_ASCII)));
+
+		return () -> {
+			connection.writeResponse(parsed);
+			response.clear();
+
+			return 1;
+		};
+	}
+
+	/**
+	 * Returns an operation reading and parsing the given requests and writing their responses.
+	 *
+	 * @param requests
+	 * 		The requests read by one operation
+	 * @param count
+	 * 		The number of requests
+	 *
+	 * @return
+	 * 		The operation
+	 */
+	private Operation handle(byte[] requests, int count) {
+		RequestParser parser = new RequestParser(server.getBufferPool(), MAX_HEADER_SIZE);
+		HttpRequest request = new HttpRequest();
+		Replay input = new Replay(requests);
+
+		return () -> {
+			for (int i = 0; i < count; i++) {
+				read(parser, request, input);
+				connection.writeResponse(request);
+				parser.release();
+			}
+
+			response.clear();
+
+			return count;
+		};
+	}
+
+	/**
+	 * Reads the next request from the given input, including its body (which is consumed, not stored).
+	 */
+	private static void read(RequestParser parser, HttpRequest request, Replay input) throws IOException {
+		while (!parser.parse(request)) {
+			parser.fill(input);
+		}
+
+		long remaining = Math.max(0, request.getNumericHeader("content-length"));
+
+		while (remaining > 0) {
+			if (!parser.hasRemaining()) {
+				parser.fill(input);
+			}
+
+			remaining -= parser.consume(remaining).remaining();
+		}
+	}
+
+	/**
+	 * Runs the given benchmark and prints its result: the mean throughput over the measured iterations,
+	 * its standard deviation (as error) and the number of bytes allocated per request.
+	 */
+	private void run(String name, Operation operation, int warmup, int iterations, long time) throws IOException {
+		for (int i = 0; i < warmup; i++) {
+			iterate(operation, time);
+		}
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+
+		double[] scores = new double[iterations];
+		long allocated = 0;
+		long total = 0;
+
+		for (int i = 0; i < iterations; i++) {
+			long before = threads.getThreadAllocatedBytes(thread);
+			long start = System.nanoTime();
+			long ops = iterate(operation, time);
+			long elapsed = System.nanoTime() - start;
+
+			allocated += threads.getThreadAllocatedBytes(thread) - before;
+			total += ops;
+			scores[i] = ops * 1e9 / elapsed;
+		}
+
+		double mean = 0;
+
+		for (double score : scores) {
+			mean += score / iterations;
+		}
+
+		double variance = 0;
+
+		for (double score : scores) {
+			variance += (score - mean) * (score - mean) / Math.max(1, iterations - 1);
+		}
+
+		System.out.println(String.format(Locale.ROOT, FORMAT, name, iterations, mean, Math.sqrt(variance), (double) allocated / total));
+	}
+
+	/**
+	 * Runs the given operation for the given time.
+	 *
+	 * @return
+	 * 		The number of requests handled
+	 */
+	private static long iterate(Operation operation, long time) throws IOException {
+		long end = System.nanoTime() + time;
+		long ops = 0;
+
+		do {
+			for (int i = 0; i < OPS_PER_CHECK; i++) {
+				ops += operation.run();
+			}
+		} while (System.nanoTime() < end);
+
+		return ops;
+	}
+
+	/**
+	 * A benchmarked operation.
+	 */
+	private interface Operation {
+
+		/**
+		 * Runs the operation once.
+		 *
+		 * @return
+		 * 		The number of requests handled
+		 *
+		 * @throws IOException
+		 */
+		int run() throws IOException;
+	}
+
+	/**
+	 * A channel replaying the given bytes over and over, as a client sending the same requests would.
+	 * A read returns at most the bytes up to the end of the sequence.
+	 */
+	private static class Replay implements ReadableByteChannel {
+
+		private final byte[] bytes;
+		private int position = 0;
+
+		private Replay(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		@Override
+		public int read(ByteBuffer buffer) {
+			int count = Math.min(Math.min(buffer.remaining(), MAX_READ), bytes.length - position);
+
+			buffer.put(bytes, position, count);
+			position = (position + count) % bytes.length;
+
+			return count;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {}
+	}
+}
@@ -0,0 +1,94 @@
+package main;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Represents a pool of byte arrays of a fixed size, shared by all connections.
+ *
+ * Connections take the arrays they read requests into and write responses from when they need them,
+ * and give them back when they become idle, so an idle connection holds (almost) no buffers.
+ * The pool is lock-free and keeps a bounded number of arrays; the others are left to the garbage collector.
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class BufferPool {
+
+	private final int bufferSize;
+	private final int capacity;
+
+	private final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger count = new AtomicInteger();
+
+	/**
+	 * Constructs an empty BufferPool.
+	 *
+	 * @param bufferSize
+	 * 		The size of the arrays in bytes
+	 * @param capacity
+	 * 		The maximum number of arrays kept in the pool
+	 */
+	public BufferPool(int bufferSize, int capacity) {
+		this.bufferSize = bufferSize;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the size of the arrays of the pool.
+	 *
+	 * @return
+	 * 		The size of the arrays in bytes
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Takes an array from the pool, allocating a new one if the pool is empty.
+	 * The content of the array is undefined.
+	 *
+	 * @return
+	 * 		An array of the pool's size
+	 */
+	public byte[] acquire() {
+		byte[] buffer = buffers.poll();
+
+		if (buffer == null) {
+			return new byte[bufferSize];
+		}
+
+		count.decrementAndGet();
+		return buffer;
+	}
+
+	/**
+	 * Gives the given array back to the pool. The caller must not use it afterwards.
+	 * Arrays of another size and arrays exceeding the capacity of the pool are dropped.
+	 *
+	 * @param buffer
+	 * 		The array to give back
+	 */
+	public void release(byte[] buffer) {
+		if (buffer.length != bufferSize) {
+			return;
+		}
+
+		if (count.incrementAndGet() > capacity) {
+			count.decrementAndGet();
+			return;
+		}
+
+		buffers.offer(buffer);
+	}
+
+	/**
+	 * Returns the number of arrays in the pool.
+	 *
+	 * @return
+	 * 		The number of pooled arrays
+	 */
+	public int getSize() {
+		return count.get();
+	}
+}
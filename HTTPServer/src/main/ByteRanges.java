@@ -0,0 +1,195 @@
+package main;
+
+/**
+ * Represents the byte ranges requested by a "Range" header (e.g. "bytes=0-499, -500"),
+ * resolved against the size of the requested resource.
+ *
+ * Ranges that start beyond the end of the resource are left out, ranges that end beyond it are shortened.
+ * The ranges are kept in the order they were requested.
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class ByteRanges {
+
+	private static final int MAX_RANGES = 16;
+
+	private final long size;
+	private final long[] starts = new long[MAX_RANGES];
+	private final long[] ends = new long[MAX_RANGES];
+	private int count = 0;
+
+	/**
+	 * Constructs an empty ByteRanges for a resource of the given size.
+	 *
+	 * @param size
+	 * 		The size of the resource in bytes
+	 */
+	private ByteRanges(long size) {
+		this.size = size;
+	}
+
+	/**
+	 * Parses the given "Range" header.
+	 *
+	 * @param header
+	 * 		The value of the "Range" header
+	 * @param size
+	 * 		The size of the requested resource in bytes
+	 *
+	 * @return
+	 * 		The satisfiable ranges (possibly none), or null if the header has to be ignored:
+	 * 		if it is malformed, uses another unit than bytes or requests too many ranges
+	 */
+	public static ByteRanges parse(String header, long size) {
+		String value = header.trim();
+
+		if (!value.regionMatches(true, 0, "bytes=", 0, 6)) {
+			return null;
+		}
+
+		ByteRanges ranges = new ByteRanges(size);
+		String[] specs = value.substring(6).split(",");
+
+		if (specs.length > MAX_RANGES) {
+			return null;
+		}
+
+		for (String spec : specs) {
+			spec = spec.trim();
+			int dash = spec.indexOf('-');
+
+			if (dash < 0) {
+				return null;
+			}
+
+			long first = parseNumber(spec.substring(0, dash).trim());
+			long last = parseNumber(spec.substring(dash + 1).trim());
+
+			if (first == -1) {
+
+				// a suffix range: the last bytes of the resource
+
+				if (last < 0) {
+					return null;
+				}
+
+				if (last > 0 && size > 0) {
+					ranges.add(Math.max(0, size - last), size);
+				}
+			}
+			else {
+				if (first < 0 || last == -2 || (last >= 0 && last < first)) {
+					return null;
+				}
+
+				if (first < size) {
+					ranges.add(first, (last < 0 || last >= size) ? size : last + 1);
+				}
+			}
+		}
+
+		return ranges;
+	}
+
+	/**
+	 * Returns the number of satisfiable ranges.
+	 *
+	 * @return
+	 * 		The number of ranges (0 if none of the requested ranges is satisfiable)
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the position of the first byte of the range with the given index.
+	 *
+	 * @param index
+	 * 		The index of the range
+	 *
+	 * @return
+	 * 		The position of the first byte of the range
+	 */
+	public long getStart(int index) {
+		return starts[index];
+	}
+
+	/**
+	 * Returns the number of bytes of the range with the given index.
+	 *
+	 * @param index
+	 * 		The index of the range
+	 *
+	 * @return
+	 * 		The length of the range in bytes
+	 */
+	public long getLength(int index) {
+		return ends[index] - starts[index];
+	}
+
+	/**
+	 * Returns the size of the resource the ranges refer to.
+	 *
+	 * @return
+	 * 		The size of the resource in bytes
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the value of the "Content-Range" header of the range with the given index (e.g. "bytes 0-499/1234").
+	 *
+	 * @param index
+	 * 		The index of the range
+	 *
+	 * @return
+	 * 		The value of the "Content-Range" header
+	 */
+	public String getContentRange(int index) {
+		return "bytes " + starts[index] + "-" + (ends[index] - 1) + "/" + size;
+	}
+
+	/**
+	 * Adds the range [start, end).
+	 */
+	private void add(long start, long end) {
+		starts[count] = start;
+		ends[count] = end;
+		count++;
+	}
+
+	/**
+	 * Parses the given non-negative decimal number.
+	 *
+	 * @param string
+	 * 		The string to parse
+	 *
+	 * @return
+	 * 		The number, -1 if the string is empty or -2 if it is not a number
+	 */
+	private static long parseNumber(String string) {
+		if (string.isEmpty()) {
+			return -1;
+		}
+
+		long value = 0;
+
+		for (int i = 0; i < string.length(); i++) {
+			int digit = string.charAt(i) - '0';
+
+			if (digit < 0 || digit > 9) {
+				return -2;
+			}
+
+			if (value > (Long.MAX_VALUE - digit) / 10) {
+				return Long.MAX_VALUE;
+			}
+
+			value = 10 * value + digit;
+		}
+
+		return value;
+	}
+}
@@ -0,0 +1,79 @@
+package main;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Represents a static resource held in memory by the {@link ContentCache}. An instance contains:<br><br>
+ * <ul>
+ *  <li>The body of the resource (on the heap or off-heap in a direct buffer)</li>
+ *  <li>The precomputed entity headers ("Content-Type", "Content-Length" and "Accept-Ranges", ending the header section)</li>
+ *  <li>The time of the last modification of the file the resource was loaded from</li>
+ * </ul>
+ * <br>
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class CachedContent {
+
+	private final ByteBuffer body;
+	private final byte[] headers;
+	private final long lastModified;
+
+	/**
+	 * Constructs a CachedContent from the given components.
+	 *
+	 * @param body
+	 * 		The body of the resource (position 0, limit the size of the resource)
+	 * @param headers
+	 * 		The encoded entity headers, including the empty line ending the header section
+	 * @param lastModified
+	 * 		The time of the last modification of the file, in milliseconds since the epoch
+	 */
+	public CachedContent(ByteBuffer body, byte[] headers, long lastModified) {
+		this.body = body.asReadOnlyBuffer();
+		this.headers = headers;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Returns the body of the resource. Every call returns a new view, so callers can consume it independently.
+	 *
+	 * @return
+	 * 		A read-only view of the body
+	 */
+	public ByteBuffer getBody() {
+		return body.duplicate();
+	}
+
+	/**
+	 * Returns the size of the body of the resource.
+	 *
+	 * @return
+	 * 		The size of the body in bytes
+	 */
+	public int getSize() {
+		return body.limit();
+	}
+
+	/**
+	 * Returns the encoded entity headers, including the empty line ending the header section.
+	 * The returned array is shared and must not be modified.
+	 *
+	 * @return
+	 * 		The encoded entity headers
+	 */
+	public byte[] getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * Returns the time of the last modification of the file the resource was loaded from.
+	 *
+	 * @return
+	 * 		The time of the last modification, in milliseconds since the epoch
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+}
@@ -0,0 +1,181 @@
+package main;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Represents the body of a response with "Transfer-Encoding: chunked": an output stream whose bytes are
+ * collected into chunks of a fixed size, each of which is appended to a {@link ResponseBuffer} and sent
+ * as soon as it is full. The length of the body does not have to be known in advance and the body is
+ * never held in memory as a whole.
+ *
+ * Closing the stream writes the last (empty) chunk and the trailers, if any.
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class ChunkedOutputStream extends OutputStream {
+
+	private static final byte[] CRLF = { '\r', '\n' };
+	private static final byte[] LAST_CHUNK = { '0', '\r', '\n' };
+
+	private final ResponseBuffer buffer;
+	private final Flushable sink;
+	private final boolean discard;
+
+	private final byte[] chunk;
+	private int count = 0;
+
+	private final byte[] size = new byte[10];
+	private Map<String, String> trailers = null;
+	private boolean closed = false;
+
+	/**
+	 * Constructs a ChunkedOutputStream from the given components.
+	 *
+	 * @param buffer
+	 * 		The buffer to append the chunks to
+	 * @param sink
+	 * 		Sends the buffer to the socket (called after every full chunk and when the stream is flushed)
+	 * @param chunkSize
+	 * 		The maximum size of a chunk in bytes
+	 * @param discard
+	 * 		Whether to discard the body (e.g. for a HEAD request)
+	 */
+	public ChunkedOutputStream(ResponseBuffer buffer, Flushable sink, int chunkSize, boolean discard) {
+		this.buffer = buffer;
+		this.sink = sink;
+		this.chunk = new byte[chunkSize];
+		this.discard = discard;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+
+		if (count == chunk.length) {
+			writeChunk();
+			sink.flush();
+		}
+
+		chunk[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException {
+		ensureOpen();
+
+		while (length > 0) {
+			if (count == chunk.length) {
+				writeChunk();
+				sink.flush();
+			}
+
+			int n = Math.min(length, chunk.length - count);
+			System.arraycopy(bytes, offset, chunk, count, n);
+
+			count += n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Sends the bytes written so far as a (possibly smaller) chunk.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+
+		writeChunk();
+		sink.flush();
+	}
+
+	/**
+	 * Sets a trailer, which is sent after the last chunk. The names of the trailers should be announced
+	 * in the "Trailer" header of the response.
+	 *
+	 * @param name
+	 * 		The field name of the trailer
+	 * @param value
+	 * 		The value of the trailer
+	 */
+	public void setTrailer(String name, String value) {
+		if (trailers == null) {
+			trailers = new LinkedHashMap<>();
+		}
+
+		trailers.put(name, value);
+	}
+
+	/**
+	 * Ends the body: sends the remaining bytes, the last chunk and the trailers.
+	 * Closing the stream does not close the connection.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+
+		writeChunk();
+		closed = true;
+
+		if (!discard) {
+			buffer.write(LAST_CHUNK);
+
+			if (trailers != null) {
+				for (Map.Entry<String, String> trailer : trailers.entrySet()) {
+					String line = trailer.getKey() + ": " + trailer.getValue() + "\r\n";
+					buffer.write(line.getBytes(StandardCharsets.ISO_8859_1));
+				}
+			}
+
+			buffer.write(CRLF);
+		}
+
+		sink.flush();
+	}
+
+	/**
+	 * Appends the collected bytes to the buffer as one chunk: its size in hexadecimal notation, the bytes and CRLF.
+	 */
+	private void writeChunk() {
+		if (count == 0) {
+			return;
+		}
+
+		if (!discard) {
+			int i = size.length;
+			size[--i] = '\n';
+			size[--i] = '\r';
+
+			for (int value = count; value > 0; value >>>= 4) {
+				size[--i] = (byte) Character.forDigit(value & 0xF, 16);
+			}
+
+			buffer.write(size, i, size.length - i);
+			buffer.copy(chunk, 0, count);
+			buffer.write(CRLF);
+		}
+
+		count = 0;
+	}
+
+	/**
+	 * Throws an IOException if the stream has been closed.
+	 */
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("stream closed");
+		}
+	}
+}
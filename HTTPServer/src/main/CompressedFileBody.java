@@ -0,0 +1,274 @@
+package main;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Represents the compressed body of a file that is too large to compress in memory: the file is read and compressed
+ * {@value #STEP} bytes at a time while the body is sent, so neither the file nor its compressed variant is held as a whole.
+ * The length of the compressed body is not known in advance, so it is sent with "Transfer-Encoding: chunked".
+ *
+ * The gzip body of a file is also written to a temporary file next to it, which replaces its sidecar file
+ * (e.g. "big.txt.gz") once the body is complete: the file is compressed for a single request, and later requests
+ * are answered with the sidecar. The sidecar is discarded if the file is modified or the body abandoned in the meantime.
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class CompressedFileBody implements HttpConnection.BodyProducer {
+
+	private static final int STEP = 65536;
+
+	private final Path path;
+	private final FileChannel file;
+	private final String encoding;
+	private final ByteBuffer input = ByteBuffer.allocate(STEP);
+	private Deflater deflater = null;
+	private OutputStream compressor = null;
+
+	// the sidecar being built, if any
+
+	private final FileInfo info;
+	private final HttpServer server;
+	private boolean claimed;
+	private Path temporary = null;
+	private OutputStream sidecar = null;
+
+	/**
+	 * Constructs a CompressedFileBody of the given file and opens the file.
+	 *
+	 * @param file
+	 * 		The file to compress
+	 * @param encoding
+	 * 		The content encoding ("gzip" or "deflate")
+	 *
+	 * @throws IOException
+	 */
+	public CompressedFileBody(Path file, String encoding) throws IOException {
+		this(file, encoding, null, null);
+	}
+
+	/**
+	 * Constructs a CompressedFileBody of the given file with the gzip encoding, which builds the sidecar of the file
+	 * while it is sent. The building of the sidecar has to be claimed with {@link HttpServer#startSidecar(String)},
+	 * and the claim is released when the body is complete or abandoned.
+	 *
+	 * @param info
+	 * 		The metadata of the file to compress
+	 * @param server
+	 * 		The {@link HttpServer} the sidecar is built for
+	 *
+	 * @throws IOException
+	 */
+	public CompressedFileBody(FileInfo info, HttpServer server) throws IOException {
+		this(info.getFile().toPath(), "gzip", info, server);
+	}
+
+	/**
+	 * Constructs a CompressedFileBody from the given components.
+	 */
+	private CompressedFileBody(Path path, String encoding, FileInfo info, HttpServer server) throws IOException {
+		this.path = path;
+		this.file = FileChannel.open(path, StandardOpenOption.READ);
+		this.encoding = encoding;
+		this.info = info;
+		this.server = server;
+		this.claimed = (info != null);
+	}
+
+	/**
+	 * Compresses the next {@value #STEP} bytes of the file to the given body, or ends the body if the whole file has been read.
+	 */
+	@Override
+	public boolean produce(ChunkedOutputStream body) throws IOException {
+		if (compressor == null) {
+			OutputStream output = body;
+
+			if (info != null) {
+				output = createSidecarOutput(body);
+			}
+
+			// the deflater is kept, so its native memory is freed as soon as the body ends or is abandoned
+			// (a GZIPOutputStream creates its own, which is reached through the protected field)
+
+			if (encoding.equals("gzip")) {
+				compressor = new GZIPOutputStream(output) {
+					{
+						deflater = def;
+					}
+				};
+			} else {
+				deflater = new Deflater();
+				compressor = new DeflaterOutputStream(output, deflater);
+			}
+		}
+
+		input.clear();
+
+		if (file.read(input) < 0) {
+
+			// finishing the compressor ends the body with the last chunk (and completes the sidecar)
+
+			compressor.close();
+			deflater.end();
+			file.close();
+
+			if (info != null) {
+				finishSidecar();
+			}
+
+			return true;
+		}
+
+		compressor.write(input.array(), 0, input.position());
+		return false;
+	}
+
+	/**
+	 * Closes the file, frees the deflater and discards the sidecar being built.
+	 */
+	@Override
+	public void close() {
+		try {
+			file.close();
+		} catch (IOException e) {}
+
+		if (deflater != null) {
+			deflater.end();
+		}
+
+		if (info != null) {
+			discardSidecar();
+		}
+	}
+
+	/**
+	 * Creates the temporary file of the sidecar, and returns a stream writing both to it and to the given body.
+	 * If the temporary file cannot be created, the body is sent without building the sidecar.
+	 *
+	 * @param body
+	 * 		The stream sending the body in chunks
+	 *
+	 * @return
+	 * 		The stream the compressed body is written to
+	 */
+	private OutputStream createSidecarOutput(ChunkedOutputStream body) {
+		try {
+			temporary = Files.createTempFile(path.getParent(), "." + path.getFileName(), ".gz");
+			sidecar = new BufferedOutputStream(Files.newOutputStream(temporary), STEP);
+		} catch (IOException e) {
+			discardSidecar();
+			return body;
+		}
+
+		return new OutputStream() {
+
+			@Override
+			public void write(int b) throws IOException {
+				body.write(b);
+				writeSidecar(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] bytes, int offset, int length) throws IOException {
+				body.write(bytes, offset, length);
+				writeSidecar(bytes, offset, length);
+			}
+
+			@Override
+			public void close() throws IOException {
+				body.close();
+			}
+		};
+	}
+
+	/**
+	 * Writes the given bytes to the sidecar being built, discarding the sidecar (but not the body) if it fails.
+	 */
+	private void writeSidecar(byte[] bytes, int offset, int length) {
+		if (sidecar == null) {
+			return;
+		}
+
+		try {
+			sidecar.write(bytes, offset, length);
+		} catch (IOException e) {
+			discardSidecar();
+		}
+	}
+
+	/**
+	 * Moves the complete sidecar in place of the previous one, unless the file has been modified since it was opened,
+	 * and makes it known to the file index.
+	 */
+	private void finishSidecar() {
+		if (sidecar == null) {
+			discardSidecar();
+			return;
+		}
+
+		Path target = path.resolveSibling(path.getFileName() + ".gz");
+
+		try {
+			sidecar.close();
+			sidecar = null;
+
+			if (Files.getLastModifiedTime(path).toMillis() != info.getLastModified()) {
+				discardSidecar();
+				return;
+			}
+
+			HttpConnection.setPermissions(temporary, path);
+
+			try {
+				Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+
+			temporary = null;
+			server.getFileIndex().update(info.getName() + ".gz");
+		} catch (IOException e) {
+			System.out.println("Error: couldn't write '" + target + "' (" + e.getMessage() + ").");
+		} finally {
+			discardSidecar();
+		}
+	}
+
+	/**
+	 * Deletes the temporary file of the sidecar, if any, and releases the claim on building it (once).
+	 */
+	private void discardSidecar() {
+		if (sidecar != null) {
+			try {
+				sidecar.close();
+			} catch (IOException e) {}
+
+			sidecar = null;
+		}
+
+		if (temporary != null) {
+			try {
+				Files.deleteIfExists(temporary);
+			} catch (IOException e) {}
+
+			temporary = null;
+		}
+
+		if (claimed) {
+			claimed = false;
+			server.endSidecar(info.getPath());
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package main;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Represents an adaptive limit on the number of requests handled at the same time, which the server finds by itself
+ * instead of being tuned for every host. Requests above the limit are rejected at once, before any work is done for them.
+ *
+ * The limit follows TCP Vegas (like the limiters of Netflix' concurrency-limits): the time a request is in flight,
+ * from its admission until its response has been written to the socket, is compared with the time it takes without load. If the requests take about as long as without load, there is no queue
+ * and the limit is raised; if they take much longer, requests are queueing (for a core, the disk or a lock) and the
+ * limit is lowered. The estimated queue is limit * (1 - noLoadTime / time), and it is kept between
+ * {@value #ALPHA} and {@value #BETA} times log10(limit).
+ *
+ * The handling times are averaged over windows of at least {@value #WINDOW_MILLIS} ms and {@value #WINDOW_SAMPLES}
+ * requests, and the limit is updated once per window by whichever thread ends it, so recording a request is only
+ * a few atomic increments. The time without load is the smallest window average. It is measured again every
+ * {@value #PROBE_WINDOWS} windows, so the limit follows the host as its disk and CPU conditions change: the limit is
+ * halved for {@value #PROBE_LENGTH} windows, which drains the queue, and the smallest of their averages becomes the
+ * new time without load. The limit is restored afterwards.
+ * The limit only grows while it is actually used: with fewer than half of it in flight, it is left as it is.
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class ConcurrencyLimiter {
+
+	private static final long WINDOW_MILLIS = 100;
+	private static final int WINDOW_SAMPLES = 10;
+	private static final int PROBE_WINDOWS = 300;
+	private static final int PROBE_LENGTH = 3;
+	private static final int ALPHA = 3;
+	private static final int BETA = 6;
+	private static final double SMOOTHING = 0.5;
+	private static final int INITIAL_LIMIT = 20;
+
+	private final int minLimit;
+	private final int maxLimit;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final LongAdder rejected = new LongAdder();
+	private volatile int limit;
+
+	// the samples of the current window, and whether a thread is ending it
+
+	private final LongAdder windowTime = new LongAdder();
+	private final LongAdder windowCount = new LongAdder();
+	private final LongAccumulator windowInFlight = new LongAccumulator(Math::max, 0);
+	private final AtomicBoolean updating = new AtomicBoolean();
+	private volatile long windowStart = System.nanoTime();
+
+	// only read and written by the thread ending a window
+
+	private double estimatedLimit;
+	private long noLoadTime = 0;
+	private int windows = 0;
+	private int probeRemaining = 0;
+	private long probeTime = 0;
+
+	/**
+	 * Constructs a ConcurrencyLimiter with the given bounds.
+	 *
+	 * @param minLimit
+	 * 		The smallest number of requests allowed in flight
+	 * @param maxLimit
+	 * 		The largest number of requests allowed in flight
+	 *
+	 * @throws IllegalArgumentException
+	 * 		If the bounds are not positive or the minimum exceeds the maximum
+	 */
+	public ConcurrencyLimiter(int minLimit, int maxLimit) throws IllegalArgumentException {
+		if (minLimit <= 0 || maxLimit < minLimit) {
+			throw new IllegalArgumentException("the concurrency limits must be positive, the minimum not above the maximum.");
+		}
+
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.limit = Math.max(minLimit, Math.min(maxLimit, INITIAL_LIMIT));
+		this.estimatedLimit = limit;
+	}
+
+	/**
+	 * Admits a request if fewer requests than the limit are in flight.
+	 * An admitted request has to be released with {@link #release(long)} once its response has been written,
+	 * or with {@link #ignore()} if it never is.
+	 *
+	 * @return
+	 * 		Whether the request is admitted (if not, it has to be rejected)
+	 */
+	public boolean acquire() {
+		int current = inFlight.incrementAndGet();
+
+		if (current > limit) {
+			inFlight.decrementAndGet();
+			rejected.increment();
+			return false;
+		}
+
+		windowInFlight.accumulate(current);
+		return true;
+	}
+
+	/**
+	 * Releases a request admitted by {@link #acquire()} once its response has been written, and records the time it was in flight.
+	 *
+	 * @param start
+	 * 		The value of {@link System#nanoTime()} when the request was admitted
+	 */
+	public void release(long start) {
+		long now = System.nanoTime();
+
+		inFlight.decrementAndGet();
+		windowTime.add(now - start);
+		windowCount.increment();
+
+		if (now - windowStart >= WINDOW_MILLIS * 1000000 && updating.compareAndSet(false, true)) {
+			try {
+				endWindow(now);
+			} finally {
+				updating.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Releases a request admitted by {@link #acquire()} without recording the time it was in flight
+	 * (e.g. because its connection has been closed before the response was written).
+	 */
+	public void ignore() {
+		inFlight.decrementAndGet();
+	}
+
+	/**
+	 * Returns the current limit.
+	 *
+	 * @return
+	 * 		The number of requests allowed in flight
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Returns the number of requests being handled.
+	 *
+	 * @return
+	 * 		The number of admitted requests that have not been released yet
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * Returns the number of requests rejected because the limit was reached.
+	 *
+	 * @return
+	 * 		The number of rejected requests
+	 */
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	/**
+	 * Ends the current window if it holds enough samples, and updates the limit with its average handling time.
+	 *
+	 * @param now
+	 * 		The current value of {@link System#nanoTime()}
+	 */
+	private void endWindow(long now) {
+		long count = windowCount.sum();
+
+		if (count < WINDOW_SAMPLES) {
+			return;
+		}
+
+		count = windowCount.sumThenReset();
+
+		long time = windowTime.sumThenReset() / count;
+		int maxInFlight = (int) windowInFlight.getThenReset();
+		windowStart = now;
+
+		// the time without load is measured again now and then, as the host may have become slower or faster:
+		// with a lower limit for a few windows, so the measured times are not those of queued requests
+
+		if (probeRemaining > 0) {
+			probeTime = Math.min(probeTime, time);
+
+			if (--probeRemaining == 0) {
+				noLoadTime = Math.max(1, probeTime);
+				limit = (int) Math.round(estimatedLimit);
+			}
+
+			return;
+		}
+
+		if (noLoadTime == 0 || time < noLoadTime) {
+			noLoadTime = Math.max(1, time);
+			return;
+		}
+
+		if (++windows % PROBE_WINDOWS == 0) {
+			probeRemaining = PROBE_LENGTH;
+			probeTime = Long.MAX_VALUE;
+			limit = Math.max(minLimit, (int) (estimatedLimit / 2));
+			return;
+		}
+
+		// a limit that is hardly used tells nothing about the capacity of the server
+
+		if (maxInFlight * 2 < estimatedLimit) {
+			return;
+		}
+
+		double log = Math.max(1, Math.log10(estimatedLimit));
+		double queue = estimatedLimit * (1 - (double) noLoadTime / time);
+		double target;
+
+		if (queue <= log) {
+			target = estimatedLimit + BETA * log;
+		}
+		else if (queue < ALPHA * log) {
+			target = estimatedLimit + log;
+		}
+		else if (queue > BETA * log) {
+			target = estimatedLimit - log;
+		}
+		else {
+			return;
+		}
+
+		target = Math.max(minLimit, Math.min(maxLimit, target));
+		estimatedLimit = (1 - SMOOTHING) * estimatedLimit + SMOOTHING * target;
+		limit = (int) Math.round(estimatedLimit);
+	}
+}
@@ -0,0 +1,598 @@
+package main;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Represents a size-bounded in-memory cache of static resources, keyed by their resolved path (e.g. "files/site/index.html").
+ *
+ * Entries are kept in least-recently-used order, but a new entry only replaces the entries it would evict if it
+ * is requested more often than they are (TinyLFU admission). The request frequencies are estimated with a
+ * count-min sketch of 4-bit counters that is halved periodically, so popularity fades over time.
+ *
+ * Lookups never lock: the entries are read from a {@link ConcurrentHashMap}. The recency order and the sketch are
+ * only updated under the lock, so a lookup records its key in a small ring buffer instead (one of several, picked by
+ * the thread), and the buffer is drained into the order and the sketch by whichever thread finds it half full and the
+ * lock free, as in Caffeine. The buffers are lossy: a key is dropped when its buffer is full or contended, which only
+ * makes the order and the frequencies slightly less exact.
+ *
+ * Compressed variants of text resources are cached as entries of their own, next to the uncompressed resource.
+ *
+ * Entries are invalidated when the server writes the file (PUT/POST) and when the {@link FileIndex} sees the file
+ * modified by another program. Compressed variants are also compressed again when the file has been modified since.
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class ContentCache {
+
+	private static final String[] ENCODINGS = { "gzip", "deflate" };
+	private static final int READ_BUFFERS = Integer.highestOneBit(4 * Runtime.getRuntime().availableProcessors() - 1) << 1;
+
+	private final long capacity;
+	private final long maxEntrySize;
+	private final long directThreshold;
+
+	private final ConcurrentHashMap<String, CachedContent> entries = new ConcurrentHashMap<>();
+	private final ReadBuffer[] readBuffers = new ReadBuffer[READ_BUFFERS];
+
+	// only read and written while holding the lock
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final LinkedHashMap<String, CachedContent> order = new LinkedHashMap<>(16, 0.75f, true);
+	private final FrequencySketch sketch;
+	private long size = 0;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder rejections = new LongAdder();
+
+	/**
+	 * Constructs a ContentCache with the given limits.
+	 *
+	 * @param capacity
+	 * 		The maximum total size of the cached bodies in bytes (0 disables the cache)
+	 * @param maxEntrySize
+	 * 		The maximum size of a single cached body in bytes
+	 * @param directThreshold
+	 * 		The size in bytes from which bodies are kept off-heap in direct buffers (0 keeps everything on the heap)
+	 */
+	public ContentCache(long capacity, long maxEntrySize, long directThreshold) {
+		this.capacity = capacity;
+		this.maxEntrySize = Math.min(maxEntrySize, Integer.MAX_VALUE);
+		this.directThreshold = directThreshold;
+		this.sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(1024, capacity / 1024)));
+
+		for (int i = 0; i < READ_BUFFERS; i++) {
+			readBuffers[i] = new ReadBuffer();
+		}
+	}
+
+	/**
+	 * Returns the cached resource with the given resolved path.
+	 *
+	 * @param path
+	 * 		The resolved path of the resource
+	 *
+	 * @return
+	 * 		The cached resource or null if it is not cached
+	 */
+	public CachedContent get(String path) {
+		if (capacity <= 0) {
+			return null;
+		}
+
+		CachedContent content = entries.get(path);
+		recordAccess(path);
+
+		if (content == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+
+		return content;
+	}
+
+	/**
+	 * Loads the given file into memory and caches it under the given resolved path if it is admitted.
+	 *
+	 * @param path
+	 * 		The resolved path of the resource
+	 * @param file
+	 * 		The file to load
+	 * @param lastModified
+	 * 		The time of the last modification of the file, in milliseconds since the epoch
+	 * @param mime
+	 * 		The MIME type of the resource
+	 *
+	 * @return
+	 * 		The loaded resource (whether it has been admitted or not) or null if the file is too large to cache
+	 *
+	 * @throws IOException
+	 */
+	public CachedContent load(String path, File file, long lastModified, String mime) throws IOException {
+		if (capacity <= 0) {
+			return null;
+		}
+
+		ByteBuffer body = read(file, true);
+
+		if (body == null) {
+			return null;
+		}
+
+		return store(path, new CachedContent(body, encodeHeaders(mime, null, body.limit()), lastModified));
+	}
+
+	/**
+	 * Returns the compressed variant of the given file with the given content encoding, compressing the file
+	 * if the variant is not cached yet or if the file has been modified since it was compressed.
+	 * The variant is cached under the encoding and the resolved path of the resource (e.g. "gzip:files/site/index.html").
+	 *
+	 * @param path
+	 * 		The resolved path of the resource
+	 * @param file
+	 * 		The file of the resource
+	 * @param lastModified
+	 * 		The time of the last modification of the file, in milliseconds since the epoch
+	 * @param mime
+	 * 		The MIME type of the resource
+	 * @param encoding
+	 * 		The content encoding ("gzip" or "deflate")
+	 *
+	 * @return
+	 * 		The compressed resource or null if the cache is disabled or the file is too large to cache
+	 *
+	 * @throws IOException
+	 */
+	public CachedContent getEncoded(String path, File file, long lastModified, String mime, String encoding) throws IOException {
+		String key = encoding + ":" + path;
+
+		CachedContent content = get(key);
+
+		if (content != null && content.getLastModified() == lastModified) {
+			return content;
+		}
+
+		if (capacity <= 0) {
+			return null;
+		}
+
+		ByteBuffer body = read(file, false);
+
+		if (body == null) {
+			return null;
+		}
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.limit() / 4 + 64);
+
+		try (OutputStream output = encoding.equals("gzip") ? new GZIPOutputStream(compressed) : new DeflaterOutputStream(compressed)) {
+			output.write(body.array(), 0, body.limit());
+		}
+
+		byte[] headers = encodeHeaders(mime, encoding, compressed.size());
+
+		return store(key, new CachedContent(ByteBuffer.wrap(compressed.toByteArray()), headers, lastModified));
+	}
+
+	/**
+	 * Returns whether a body of the given size can be cached (and thus a variant of it compressed in memory).
+	 *
+	 * @param size
+	 * 		The size of the body in bytes
+	 *
+	 * @return
+	 * 		Whether the cache is enabled and the body is not too large for it
+	 */
+	public boolean canCache(long size) {
+		return capacity > 0 && size <= maxEntrySize && size <= capacity;
+	}
+
+	/**
+	 * Encodes the entity headers of a resource: "Content-Type", "Content-Encoding" (if compressed), "Content-Length",
+	 * "Accept-Ranges" (if not compressed) and "Vary" (if compressible), followed by the empty line ending the header section.
+	 *
+	 * @param mime
+	 * 		The MIME type of the resource
+	 * @param encoding
+	 * 		The content encoding of the body or null if it is not compressed
+	 * @param length
+	 * 		The length of the body in bytes
+	 *
+	 * @return
+	 * 		The encoded headers
+	 */
+	public static byte[] encodeHeaders(String mime, String encoding, long length) {
+		String headers = "Content-Type: " + mime + "\r\n"
+			+ ((encoding != null) ? "Content-Encoding: " + encoding + "\r\n" : "")
+			+ "Content-Length: " + length + "\r\n"
+			+ ((encoding == null) ? "Accept-Ranges: bytes\r\n" : "")
+			+ ((encoding != null || isCompressible(mime)) ? "Vary: Accept-Encoding\r\n" : "")
+			+ "\r\n";
+
+		return headers.getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Returns whether resources of the given MIME type are worth compressing (text, as opposed to e.g. images or video).
+	 *
+	 * @param mime
+	 * 		The MIME type
+	 *
+	 * @return
+	 * 		Whether the MIME type is compressible
+	 */
+	public static boolean isCompressible(String mime) {
+		return mime.startsWith("text/")
+			|| mime.equals("application/json")
+			|| mime.equals("application/javascript")
+			|| mime.equals("application/xml")
+			|| mime.equals("image/svg+xml");
+	}
+
+	/**
+	 * Removes the resource with the given resolved path from the cache.
+	 *
+	 * @param path
+	 * 		The resolved path of the resource
+	 */
+	public void invalidate(String path) {
+		lock.lock();
+
+		try {
+			remove(path);
+
+			for (String encoding : ENCODINGS) {
+				remove(encoding + ":" + path);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of requests served from the cache.
+	 *
+	 * @return
+	 * 		The number of hits
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of requests for resources that were not cached.
+	 *
+	 * @return
+	 * 		The number of misses
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the number of entries evicted to make room for more popular ones.
+	 *
+	 * @return
+	 * 		The number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Returns the number of loaded resources that were not admitted, being less popular than the entries they would evict.
+	 *
+	 * @return
+	 * 		The number of rejections
+	 */
+	public long getRejections() {
+		return rejections.sum();
+	}
+
+	/**
+	 * Returns the total size of the cached bodies.
+	 *
+	 * @return
+	 * 		The size of the cache in bytes
+	 */
+	public long getSize() {
+		lock.lock();
+
+		try {
+			return size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Reads the given file into memory.
+	 *
+	 * @param file
+	 * 		The file to read
+	 * @param direct
+	 * 		Whether the file may be read into a direct buffer (if it is at least as large as the threshold)
+	 *
+	 * @return
+	 * 		The content of the file or null if it is too large to cache
+	 *
+	 * @throws IOException
+	 */
+	private ByteBuffer read(File file, boolean direct) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long length = channel.size();
+
+			if (!canCache(length)) {
+				return null;
+			}
+
+			ByteBuffer body = (direct && directThreshold > 0 && length >= directThreshold)
+				? ByteBuffer.allocateDirect((int) length)
+				: ByteBuffer.allocate((int) length);
+
+			while (body.hasRemaining()) {
+				if (channel.read(body) < 0) {
+					break;
+				}
+			}
+
+			body.flip();
+			return body;
+		}
+	}
+
+	/**
+	 * Adds the given resource to the cache under the given key if it is admitted.
+	 *
+	 * @param key
+	 * 		The key of the resource
+	 * @param content
+	 * 		The resource to add
+	 *
+	 * @return
+	 * 		The given resource
+	 */
+	private CachedContent store(String key, CachedContent content) {
+		lock.lock();
+
+		try {
+			drainReadBuffers();
+			admit(key, content);
+		} finally {
+			lock.unlock();
+		}
+
+		return content;
+	}
+
+	/**
+	 * Removes the entry with the given key. Must be called while holding the lock.
+	 *
+	 * @param key
+	 * 		The key of the entry
+	 */
+	private void remove(String key) {
+		order.remove(key);
+		CachedContent content = entries.remove(key);
+
+		if (content != null) {
+			size -= content.getSize();
+		}
+	}
+
+	/**
+	 * Adds the given resource to the cache if it is requested more often than the entries it would evict.
+	 * Must be called while holding the lock.
+	 *
+	 * @param path
+	 * 		The resolved path of the resource
+	 * @param content
+	 * 		The resource to add
+	 */
+	private void admit(String path, CachedContent content) {
+		remove(path);
+
+		// collect the least recently used entries that would have to make room
+
+		ArrayList<String> victims = new ArrayList<>();
+		long freed = 0;
+		int frequency = sketch.frequency(path.hashCode());
+		Iterator<String> iterator = order.keySet().iterator();
+
+		while (size - freed + content.getSize() > capacity && iterator.hasNext()) {
+			String victim = iterator.next();
+
+			if (sketch.frequency(victim.hashCode()) >= frequency) {
+				rejections.increment();
+				return;
+			}
+
+			victims.add(victim);
+			freed += entries.get(victim).getSize();
+		}
+
+		for (String victim : victims) {
+			order.remove(victim);
+			entries.remove(victim);
+			evictions.increment();
+		}
+
+		size -= freed;
+		size += content.getSize();
+		order.put(path, content);
+		entries.put(path, content);
+	}
+
+	/**
+	 * Records an access to the given key in the read buffer of the current thread, and drains the buffers if it is half
+	 * full and no other thread holds the lock.
+	 *
+	 * @param key
+	 * 		The key that has been looked up
+	 */
+	private void recordAccess(String key) {
+		long id = Thread.currentThread().getId();
+		ReadBuffer buffer = readBuffers[(int) (id ^ (id >>> 16)) & (READ_BUFFERS - 1)];
+
+		if (buffer.offer(key) && lock.tryLock()) {
+			try {
+				drainReadBuffers();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Applies the recorded accesses to the recency order and the sketch. Must be called while holding the lock.
+	 */
+	private void drainReadBuffers() {
+		for (ReadBuffer buffer : readBuffers) {
+			String key;
+
+			while ((key = buffer.poll()) != null) {
+				sketch.increment(key.hashCode());
+				order.get(key);
+			}
+		}
+	}
+
+	/**
+	 * A lossy ring buffer of accessed keys: any thread may add keys, while only the thread holding the lock of the cache
+	 * takes them out. A key is dropped if the buffer is full or another thread is adding a key at the same time.
+	 */
+	private static class ReadBuffer {
+
+		private static final int SIZE = 16;
+
+		private final AtomicReferenceArray<String> slots = new AtomicReferenceArray<>(SIZE);
+		private final AtomicLong writes = new AtomicLong();
+		private volatile long reads = 0;
+
+		/**
+		 * Adds the given key to the buffer, unless it is dropped.
+		 *
+		 * @return
+		 * 		Whether the buffer should be drained (it is at least half full)
+		 */
+		private boolean offer(String key) {
+			long tail = writes.get();
+			long pending = tail - reads;
+
+			if (pending >= SIZE) {
+				return true;
+			}
+
+			if (writes.compareAndSet(tail, tail + 1)) {
+				slots.lazySet((int) tail & (SIZE - 1), key);
+			}
+
+			return pending + 1 >= SIZE / 2;
+		}
+
+		/**
+		 * Takes the oldest key out of the buffer. Must be called while holding the lock of the cache.
+		 *
+		 * @return
+		 * 		The key or null if the buffer is empty (or the oldest key is still being added)
+		 */
+		private String poll() {
+			long head = reads;
+
+			if (head == writes.get()) {
+				return null;
+			}
+
+			int index = (int) head & (SIZE - 1);
+			String key = slots.get(index);
+
+			if (key != null) {
+				slots.lazySet(index, null);
+				reads = head + 1;
+			}
+
+			return key;
+		}
+	}
+
+	/**
+	 * A count-min sketch of 4-bit counters estimating how often keys are requested.
+	 * All counters are halved after a sample of requests ten times the width of the sketch.
+	 */
+	private static class FrequencySketch {
+
+		private static final int DEPTH = 4;
+		private static final int[] SEEDS = { 0x97cb3127, 0xb8b8d5a5, 0x4b0f6d63, 0x7fa4c0e1 };
+
+		private final byte[][] counters;
+		private final int mask;
+		private final int sampleSize;
+		private int samples = 0;
+
+		private FrequencySketch(int width) {
+			int size = Integer.highestOneBit(width - 1) << 1;
+
+			this.counters = new byte[DEPTH][size];
+			this.mask = size - 1;
+			this.sampleSize = 10 * size;
+		}
+
+		private void increment(int hash) {
+			for (int i = 0; i < DEPTH; i++) {
+				int index = index(hash, i);
+
+				if (counters[i][index] < 15) {
+					counters[i][index]++;
+				}
+			}
+
+			if (++samples >= sampleSize) {
+				reset();
+			}
+		}
+
+		private int frequency(int hash) {
+			int frequency = 15;
+
+			for (int i = 0; i < DEPTH; i++) {
+				frequency = Math.min(frequency, counters[i][index(hash, i)]);
+			}
+
+			return frequency;
+		}
+
+		private int index(int hash, int row) {
+			int h = hash * SEEDS[row];
+			return (h ^ (h >>> 16)) & mask;
+		}
+
+		private void reset() {
+			for (byte[] row : counters) {
+				for (int i = 0; i < row.length; i++) {
+					row[i] >>= 1;
+				}
+			}
+
+			samples /= 2;
+		}
+	}
+}
@@ -0,0 +1,335 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Represents a bounded cache of the entity tags of static resources, keyed by their resolved path.
+ *
+ * An entity tag is a strong validator derived from a SHA-256 hash of the content of the file. It is computed once
+ * per version of the file: an entry is only used while the time of the last modification and the size of the file
+ * are the ones it was computed for. Compressed variants of a resource use the tag of the resource with the
+ * content encoding as suffix (e.g. "abc-gzip"), and are matched as the resource itself by the weak comparison.
+ *
+ * Hashing reads the whole file, so it is never done while a request is handled (it would block the event loop or
+ * worker for as long as a large file takes to read): the first request for a version of a file schedules the hash on
+ * a thread of its own and is answered with the version tag of the file, derived from the time of its last modification
+ * and its size. The version tag identifies the same version as the hash, so it keeps matching once the hash is known.
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class ETagCache {
+
+	private static final int BUFFER_SIZE = 65536;
+	private static final int TAG_LENGTH = 16;
+	private static final int QUEUE_SIZE = 1024;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final LinkedHashMap<String, Tag> entries;
+	private final ThreadPoolExecutor hasher;
+
+	/**
+	 * Constructs an ETagCache holding at most the given number of entity tags.
+	 *
+	 * @param maxEntries
+	 * 		The maximum number of entries, after which the least recently used ones are discarded
+	 */
+	public ETagCache(int maxEntries) {
+		this.entries = new LinkedHashMap<String, Tag>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Tag> eldest) {
+				return size() > maxEntries;
+			}
+		};
+
+		this.hasher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE), task -> {
+			Thread thread = new Thread(task, "etag-hasher");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Returns the entity tag of the given file. If the hash of this version of the file is not known yet, it is scheduled
+	 * and the version tag of the file is returned instead, so the file is never read by the calling thread.
+	 *
+	 * @param path
+	 * 		The resolved path of the resource
+	 * @param file
+	 * 		The file of the resource
+	 * @param lastModified
+	 * 		The time of the last modification of the file, in milliseconds since the epoch
+	 * @param size
+	 * 		The size of the file in bytes
+	 *
+	 * @return
+	 * 		The entity tag, including the quotes (e.g. "\"abc\"")
+	 */
+	public String get(String path, File file, long lastModified, long size) {
+		Tag entry;
+
+		lock.lock();
+
+		try {
+			entry = entries.get(path);
+
+			if (entry != null && entry.lastModified == lastModified && entry.size == size) {
+				return (entry.tag != null) ? entry.tag : getVersionTag(lastModified, size);
+			}
+
+			// an entry without tag marks the hash of this version as scheduled
+
+			entry = new Tag(lastModified, size, null);
+			entries.put(path, entry);
+		} finally {
+			lock.unlock();
+		}
+
+		Tag pending = entry;
+
+		try {
+			hasher.execute(() -> computeTag(path, file, pending));
+		} catch (RejectedExecutionException e) {
+			remove(path, pending);
+		}
+
+		return getVersionTag(lastModified, size);
+	}
+
+	/**
+	 * Hashes the given version of a file and caches its entity tag, unless the file has been changed in the meantime.
+	 * Runs on the thread of the hasher.
+	 *
+	 * @param path
+	 * 		The resolved path of the resource
+	 * @param file
+	 * 		The file of the resource
+	 * @param pending
+	 * 		The entry that marks the hash as scheduled
+	 */
+	private void computeTag(String path, File file, Tag pending) {
+		String tag;
+
+		try {
+			tag = hash(file);
+		} catch (IOException e) {
+			tag = null;
+		}
+
+		if (tag == null || file.lastModified() != pending.lastModified || file.length() != pending.size) {
+			remove(path, pending);
+			return;
+		}
+
+		lock.lock();
+
+		try {
+			if (entries.get(path) == pending) {
+				entries.put(path, new Tag(pending.lastModified, pending.size, tag));
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the given entry of the resource with the given resolved path, if it has not been replaced.
+	 */
+	private void remove(String path, Tag entry) {
+		lock.lock();
+
+		try {
+			entries.remove(path, entry);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the entity tag of the resource with the given resolved path.
+	 *
+	 * @param path
+	 * 		The resolved path of the resource
+	 */
+	public void invalidate(String path) {
+		lock.lock();
+
+		try {
+			entries.remove(path);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the entity tag of the compressed variant of a resource.
+	 *
+	 * @param tag
+	 * 		The entity tag of the resource
+	 * @param encoding
+	 * 		The content encoding of the variant
+	 *
+	 * @return
+	 * 		The entity tag of the variant (e.g. "\"abc-gzip\"")
+	 */
+	public static String getEncodedTag(String tag, String encoding) {
+		return tag.substring(0, tag.length() - 1) + "-" + encoding + "\"";
+	}
+
+	/**
+	 * Returns the version tag of a file: a strong validator derived from the time of its last modification and its size,
+	 * which identifies the same version of the file as the hash of its content.
+	 *
+	 * @param lastModified
+	 * 		The time of the last modification of the file, in milliseconds since the epoch
+	 * @param size
+	 * 		The size of the file in bytes
+	 *
+	 * @return
+	 * 		The version tag, including the quotes (e.g. "\"18f2a3b4c5d-4d2\"")
+	 */
+	public static String getVersionTag(long lastModified, long size) {
+		return "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(size) + "\"";
+	}
+
+	/**
+	 * Returns whether the given "If-Match" or "If-None-Match" header matches the entity tag or the version tag of the
+	 * selected variant of a resource. "If-None-Match" uses the weak comparison, in which weak tags ("W/...") match the
+	 * tag they are marked weak from and the tags of all variants of the resource match each other. "If-Match" uses the
+	 * strong comparison, in which only the strong tags of the selected variant match.
+	 *
+	 * @param header
+	 * 		The value of the header: "*" or a comma-separated list of entity tags
+	 * @param tag
+	 * 		The entity tag of the current version of the resource
+	 * @param lastModified
+	 * 		The time of the last modification of the resource, in milliseconds since the epoch
+	 * @param size
+	 * 		The size of the resource in bytes
+	 * @param encoding
+	 * 		The content encoding of the selected variant or null if the resource is sent as it is
+	 * @param weak
+	 * 		A boolean that indicates whether the weak comparison is used (for "If-None-Match")
+	 *
+	 * @return
+	 * 		Whether the header matches the entity tag
+	 */
+	public static boolean matches(String header, String tag, long lastModified, long size, String encoding, boolean weak) {
+		String versionTag = null;
+
+		if (!weak && encoding != null) {
+			tag = getEncodedTag(tag, encoding);
+		}
+
+		for (String candidate : header.split(",")) {
+			candidate = candidate.trim();
+
+			if (candidate.equals("*")) {
+				return true;
+			}
+
+			if (weak) {
+				if (candidate.startsWith("W/")) {
+					candidate = candidate.substring(2);
+				}
+
+				if (candidate.endsWith("-gzip\"")) {
+					candidate = candidate.substring(0, candidate.length() - 6) + "\"";
+				}
+				else if (candidate.endsWith("-deflate\"")) {
+					candidate = candidate.substring(0, candidate.length() - 9) + "\"";
+				}
+			}
+			else if (candidate.startsWith("W/")) {
+				continue;
+			}
+
+			if (candidate.equals(tag)) {
+				return true;
+			}
+
+			if (versionTag == null) {
+				versionTag = getVersionTag(lastModified, size);
+
+				if (!weak && encoding != null) {
+					versionTag = getEncodedTag(versionTag, encoding);
+				}
+			}
+
+			if (candidate.equals(versionTag)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Hashes the content of the given file, reading it in blocks of a fixed size.
+	 *
+	 * @param file
+	 * 		The file to hash
+	 *
+	 * @return
+	 * 		The entity tag of the content of the file
+	 *
+	 * @throws IOException
+	 */
+	public static String hash(File file) throws IOException {
+		MessageDigest digest;
+
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		}
+
+		byte[] bytes = new byte[TAG_LENGTH];
+		System.arraycopy(digest.digest(), 0, bytes, 0, TAG_LENGTH);
+
+		return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(bytes) + "\"";
+	}
+
+	/**
+	 * The entity tag of a version of a file, or null while its hash is scheduled.
+	 */
+	private static class Tag {
+
+		private final long lastModified;
+		private final long size;
+		private final String tag;
+
+		private Tag(long lastModified, long size, String tag) {
+			this.lastModified = lastModified;
+			this.size = size;
+			this.tag = tag;
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package main;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Represents a single-threaded event loop of the non-blocking transport.
+ * It owns a {@link Selector} and drives the {@link NioConnection}s registered with it.
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class EventLoop implements Runnable {
+
+	private final HttpServer server;
+	private final Selector selector;
+	private final ConcurrentLinkedQueue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Constructs an EventLoop for the given server.
+	 *
+	 * @param server
+	 * 		The {@link HttpServer} the event loop belongs to
+	 *
+	 * @throws IOException
+	 */
+	public EventLoop(HttpServer server) throws IOException {
+		this.server = server;
+		this.selector = Selector.open();
+	}
+
+	/**
+	 * Hands the given (non-blocking) channel over to this event loop.
+	 * This method can be called from any thread.
+	 *
+	 * @param channel
+	 * 		The accepted channel
+	 */
+	public void register(SocketChannel channel) {
+		pending.add(channel);
+		selector.wakeup();
+	}
+
+	/**
+	 * Runs the event loop, dispatching the ready connections until the selector fails.
+	 */
+	@Override
+	public void run() {
+		try {
+			long timeout = server.getIdleTimeout();
+			long lastCheck = System.currentTimeMillis();
+
+			while (true) {
+				selector.select(1000);
+				registerPending();
+
+				if (timeout > 0 && System.currentTimeMillis() - lastCheck >= 1000) {
+					lastCheck = System.currentTimeMillis();
+					closeIdleConnections(lastCheck, timeout);
+				}
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+
+					NioConnection connection = (NioConnection) key.attachment();
+
+					try {
+						if (key.isReadable()) {
+							connection.read();
+						}
+
+						if (key.isValid() && key.isWritable()) {
+							connection.write();
+						}
+					} catch (IOException | RuntimeException e) {
+						connection.close();
+					}
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("Error: event loop stopped (" + e.getMessage() + ").");
+		}
+	}
+
+	/**
+	 * Registers the channels handed over since the last iteration with the selector.
+	 */
+	private void registerPending() {
+		SocketChannel channel;
+
+		while ((channel = pending.poll()) != null) {
+			try {
+				SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+				key.attach(new NioConnection(channel, key, server));
+			} catch (IOException e) {
+				try {
+					channel.close();
+				} catch (IOException f) {}
+
+				server.releaseConnection();
+			}
+		}
+	}
+
+	/**
+	 * Closes the connections that have been waiting for a request for longer than the given timeout.
+	 *
+	 * @param now
+	 * 		The current time in milliseconds
+	 * @param timeout
+	 * 		The idle timeout in milliseconds
+	 */
+	private void closeIdleConnections(long now, long timeout) {
+		for (SelectionKey key : selector.keys()) {
+			NioConnection connection = (NioConnection) key.attachment();
+
+			if (connection != null && connection.isIdle(now, timeout)) {
+				connection.close();
+			}
+		}
+	}
+}
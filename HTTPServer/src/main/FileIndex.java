@@ -0,0 +1,295 @@
+package main;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Represents an in-memory index of the files of the document root, so GET and HEAD requests are resolved
+ * without touching the file system: whether the file exists, its size, the time of its last modification
+ * and its MIME type. A directory ("/sub/") resolves to its "index.html".
+ *
+ * The index is built when the server starts and kept up to date by a thread watching the directories
+ * with a {@link WatchService}, and by the server itself whenever it writes a file (PUT/POST). Lookups are
+ * a single read of a {@link ConcurrentHashMap}, which never locks. Files modified by other programs are seen
+ * as soon as the watcher has been notified (usually within milliseconds); their cached content and entity tags
+ * are invalidated at the same time.
+ *
+ * If the index is disabled (or the directories cannot be watched), every lookup reads the metadata from the file system.
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class FileIndex {
+
+	private static final String INDEX_FILE = "index.html";
+
+	private final String root;
+	private final Path rootPath;
+	private final Consumer<String> listener;
+	private final ConcurrentHashMap<String, FileInfo> entries = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<WatchKey, Path> directories = new ConcurrentHashMap<>();
+
+	private final boolean enabled;
+	private final WatchService watcher;
+
+	/**
+	 * Constructs a FileIndex of the given document root and builds it.
+	 *
+	 * @param root
+	 * 		The relative path of the document root (e.g. "files/site")
+	 * @param enabled
+	 * 		Whether the metadata is kept in memory (if not, every lookup reads it from the file system)
+	 * @param listener
+	 * 		The function called with the resolved path of every file modified by another program
+	 */
+	public FileIndex(String root, boolean enabled, Consumer<String> listener) {
+		this.root = root;
+		this.rootPath = Paths.get(root);
+		this.listener = listener;
+
+		WatchService watcher = null;
+
+		if (enabled && Files.isDirectory(rootPath)) {
+			try {
+				watcher = FileSystems.getDefault().newWatchService();
+			} catch (IOException e) {
+				System.out.println("Error: couldn't watch '" + root + "' (" + e.getMessage() + "), the file index is disabled.");
+			}
+		}
+
+		this.watcher = watcher;
+		this.enabled = (watcher != null);
+
+		if (this.enabled) {
+			scan(rootPath);
+
+			Thread thread = new Thread(this::watch, "file-index");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Returns the metadata of the file the given request path refers to.
+	 *
+	 * @param path
+	 * 		The path relative to the document root (e.g. "/sub/t.txt" or "/sub/" for its "index.html")
+	 *
+	 * @return
+	 * 		The metadata or null if there is no such file
+	 */
+	public FileInfo get(String path) {
+		if (enabled) {
+			return entries.get(path);
+		}
+
+		String name = path.endsWith("/") ? path + INDEX_FILE : path;
+		File file = new File(root + name);
+
+		return file.isFile() ? new FileInfo(name, root + name, file.length(), file.lastModified()) : null;
+	}
+
+	/**
+	 * Reads the metadata of the file with the given name again, after the server has written it.
+	 *
+	 * @param name
+	 * 		The name of the file relative to the document root (e.g. "/sub/t.txt")
+	 */
+	public void update(String name) {
+		if (enabled) {
+			refresh(name);
+		}
+	}
+
+	/**
+	 * Returns the number of indexed files.
+	 *
+	 * @return
+	 * 		The number of files (0 if the index is disabled)
+	 */
+	public int size() {
+		int count = 0;
+
+		for (String name : entries.keySet()) {
+			if (!name.endsWith("/")) {
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Watches the directories of the document root, updating the index whenever something changes.
+	 * Runs on a thread of its own until the watch service is closed.
+	 */
+	private void watch() {
+		while (true) {
+			WatchKey key;
+
+			try {
+				key = watcher.take();
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+
+			Path directory = directories.get(key);
+
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == OVERFLOW || directory == null) {
+
+					// events have been lost, so the whole tree is compared to the index
+
+					rescan();
+					continue;
+				}
+
+				Path child = directory.resolve((Path) event.context());
+				String name = getName(child);
+
+				if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+					if (event.kind() == ENTRY_CREATE) {
+						scan(child);
+					}
+				}
+				else {
+					refresh(name);
+					listener.accept(root + name);
+				}
+
+				if (event.kind() == ENTRY_DELETE) {
+					removeAll(name + "/");
+				}
+			}
+
+			if (!key.reset()) {
+				directories.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Registers the given directory and its subdirectories with the watcher and indexes their files.
+	 * A directory is registered before it is read, so files created meanwhile are not missed.
+	 *
+	 * @param start
+	 * 		The directory
+	 */
+	private void scan(Path start) {
+		try {
+			Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+
+				@Override
+				public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException {
+					directories.put(directory.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), directory);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+					if (attributes.isRegularFile()) {
+						put(getName(file), attributes.size(), attributes.lastModifiedTime().toMillis());
+					}
+
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			System.out.println("Error: couldn't index '" + start + "' (" + e.getMessage() + ").");
+		}
+	}
+
+	/**
+	 * Compares the whole tree to the index: indexes the files on disk again and removes the files that are gone.
+	 */
+	private void rescan() {
+		scan(rootPath);
+
+		for (FileInfo info : entries.values()) {
+			if (!info.getFile().isFile()) {
+				refresh(info.getName());
+			}
+
+			listener.accept(info.getPath());
+		}
+	}
+
+	/**
+	 * Reads the metadata of the file with the given name from the file system and updates the index accordingly.
+	 *
+	 * @param name
+	 * 		The name of the file relative to the document root
+	 */
+	private void refresh(String name) {
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(Paths.get(root + name), BasicFileAttributes.class);
+
+			if (attributes.isRegularFile()) {
+				put(name, attributes.size(), attributes.lastModifiedTime().toMillis());
+				return;
+			}
+		} catch (IOException e) {}
+
+		entries.remove(name);
+
+		if (name.endsWith("/" + INDEX_FILE)) {
+			entries.remove(name.substring(0, name.length() - INDEX_FILE.length()));
+		}
+	}
+
+	/**
+	 * Indexes the file with the given name and metadata, under its directory as well if it is an "index.html".
+	 */
+	private void put(String name, long size, long lastModified) {
+		FileInfo info = new FileInfo(name, root + name, size, lastModified);
+		entries.put(name, info);
+
+		if (name.endsWith("/" + INDEX_FILE)) {
+			entries.put(name.substring(0, name.length() - INDEX_FILE.length()), info);
+		}
+	}
+
+	/**
+	 * Removes all files whose name starts with the given prefix (the files of a deleted directory).
+	 */
+	private void removeAll(String prefix) {
+		entries.keySet().removeIf(name -> name.startsWith(prefix));
+	}
+
+	/**
+	 * Returns the name of the given file relative to the document root.
+	 *
+	 * @param file
+	 * 		The file in the document root
+	 *
+	 * @return
+	 * 		The name, starting with a slash and separated by slashes (e.g. "/sub/t.txt")
+	 */
+	private String getName(Path file) {
+		return "/" + rootPath.relativize(file).toString().replace(File.separatorChar, '/');
+	}
+}
@@ -0,0 +1,157 @@
+package main;
+
+import java.io.File;
+
+/**
+ * Represents the metadata of a file of the document root, as held by the {@link FileIndex}. An instance contains:<br><br>
+ * <ul>
+ *  <li>The name of the file relative to the document root (e.g. "/sub/index.html")</li>
+ *  <li>The resolved path of the file (e.g. "files/site/sub/index.html")</li>
+ *  <li>The size of the file and the time of its last modification</li>
+ *  <li>The MIME type of the file, derived from its extension</li>
+ * </ul>
+ * <br>
+ *
+ * An instance is immutable: a modified file gets a new instance.
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class FileInfo {
+
+	private final String name;
+	private final String path;
+	private final File file;
+	private final long size;
+	private final long lastModified;
+	private final String mime;
+
+	/**
+	 * Constructs a FileInfo from the given components.
+	 *
+	 * @param name
+	 * 		The name of the file relative to the document root, starting with a slash
+	 * @param path
+	 * 		The resolved path of the file
+	 * @param size
+	 * 		The size of the file in bytes
+	 * @param lastModified
+	 * 		The time of the last modification of the file, in milliseconds since the epoch
+	 */
+	public FileInfo(String name, String path, long size, long lastModified) {
+		this.name = name;
+		this.path = path;
+		this.file = new File(path);
+		this.size = size;
+		this.lastModified = lastModified;
+		this.mime = getMIME(name);
+	}
+
+	/**
+	 * Returns the name of the file relative to the document root.
+	 *
+	 * @return
+	 * 		The name of the file (e.g. "/sub/index.html")
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the resolved path of the file, which is the key of the file in the caches.
+	 *
+	 * @return
+	 * 		The resolved path of the file (e.g. "files/site/sub/index.html")
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * Returns the file.
+	 *
+	 * @return
+	 * 		The file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the size of the file.
+	 *
+	 * @return
+	 * 		The size of the file in bytes
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the time of the last modification of the file.
+	 *
+	 * @return
+	 * 		The time of the last modification, in milliseconds since the epoch
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Returns the MIME type of the file.
+	 *
+	 * @return
+	 * 		The MIME type (e.g. "text/html")
+	 */
+	public String getMIME() {
+		return mime;
+	}
+
+	/**
+	 * Returns the MIME type of the given resource name.
+	 *
+	 * @param name
+	 * 		The name of a resource
+	 *
+	 * @return
+	 * 		The MIME type of the extension of the given name
+	 */
+	public static String getMIME(String name) {
+		int index = name.lastIndexOf(".");
+
+		if (index < 0) {
+			return "text/html";
+		}
+
+		String extension = name.substring(index + 1);
+
+		switch (extension) {
+		case "html":
+			return "text/html";
+
+		case "txt":
+			return "text/plain";
+
+		case "png":
+			return "image/png";
+
+		case "jpg":
+			return "image/jpeg";
+
+		case "gif":
+			return "image/gif";
+
+		case "bmp":
+			return "image/bmp";
+
+		case "mp3":
+			return "audio/mpeg";
+
+		case "mp4":
+			return "video/mp4";
+
+		default:
+			return "application/octet-stream";
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package main;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Represents a histogram of non-negative values (e.g. durations in nanoseconds or sizes in bytes)
+ * that many threads can record into concurrently, without locking.
+ *
+ * Like an HdrHistogram, the values are counted in log-linear buckets: every power of two is split into
+ * {@value #SUB_BUCKETS} buckets of equal width, so a percentile is accurate to within 12.5% whatever the
+ * magnitude of the values, and recording a value is a few shifts and a {@link LongAdder} increment.
+ * The counters are striped by the LongAdders themselves, so recording threads do not contend.
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final LongAdder[] counts = new LongAdder[BUCKETS];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Constructs an empty Histogram.
+	 */
+	public Histogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Records the given value. Negative values are recorded as 0.
+	 *
+	 * @param value
+	 * 		The value to record
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+
+		counts[indexOf(value)].increment();
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * Returns the number of recorded values.
+	 *
+	 * @return
+	 * 		The number of values
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Returns the sum of the recorded values.
+	 *
+	 * @return
+	 * 		The sum of the values
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * Returns the largest recorded value.
+	 *
+	 * @return
+	 * 		The largest value (0 if none has been recorded)
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns (an upper bound of) the value below which the given percentage of the recorded values lie.
+	 * Values recorded concurrently may or may not be taken into account.
+	 *
+	 * @param percentile
+	 * 		The percentage (e.g. 99.9)
+	 *
+	 * @return
+	 * 		The percentile (0 if no value has been recorded)
+	 */
+	public long getPercentile(double percentile) {
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts[i].sum();
+			total += snapshot[i];
+		}
+
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+
+			if (seen >= rank) {
+				return Math.min(upperBoundOf(i), getMax());
+			}
+		}
+
+		return getMax();
+	}
+
+	/**
+	 * Returns the index of the bucket counting the given value.
+	 *
+	 * @param value
+	 * 		The non-negative value
+	 *
+	 * @return
+	 * 		The index of the bucket
+	 */
+	private static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * Returns the largest value counted by the bucket with the given index.
+	 *
+	 * @param index
+	 * 		The index of the bucket
+	 *
+	 * @return
+	 * 		The largest value of the bucket
+	 */
+	private static long upperBoundOf(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+
+		int shift = index / SUB_BUCKETS - 1;
+		long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+
+		return (lower < 0) ? Long.MAX_VALUE : lower + (1L << shift) - 1;
+	}
+}
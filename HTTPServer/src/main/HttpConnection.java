@@ -1,573 +1,1676 @@
-package main;
-
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.net.Socket;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.text.SimpleDateFormat;
-import java.time.ZoneOffset;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Locale;
-import java.util.TimeZone;
-
-/**
- * Represents an HTTP/1.1 persistent server connection.
- * 
- * @author Bauwen Demol (r0583318)
- * @author Jorik Jooken (r0588270)
- */
-public class HttpConnection implements Runnable {
-
-	private final String PATH;
-	
-	private Socket socket;
-	private BufferedInputStream request;
-	private BufferedOutputStream response;
-	
-	/**
-	 * Constructs an HttpConnection from the given components.
-	 * 
-	 * @param socket
-	 * 		The socket the connection will use
-	 * @param path
-	 * 		The path containing the relative location of the local web server
-	 * 
-	 * @throws IOException
-	 */
-	public HttpConnection(Socket socket, String path) throws IOException {
-		this.socket = socket;
-		this.request = new BufferedInputStream(socket.getInputStream());
-		this.response = new BufferedOutputStream(socket.getOutputStream());
-		
-		PATH = "files/" + path;
-	}
-	
-	/**
-	 * Runs the thread handling the connection with a client.
-	 */
-	@Override
-	public void run() {
-		try {
-			while (true) {
-				
-				// read the request
-				
-				HttpRequest request = readRequest();
-				
-				if (request == null) {
-					break;
-				}
-				
-				
-				// print the request
-				
-				System.out.println(request.getRequestLine());
-				
-				HashMap<String, String> headers = request.getHeaders();
-				
-				for (String name : headers.keySet()) {
-					System.out.println(name + ": " + headers.get(name));
-				}
-				
-				System.out.println("");
-				
-				if (request.hasBody()) {
-					System.out.println(request.getBody());
-				}
-				
-				
-				// write the appropriate response
-				
-				boolean closed = writeResponse(request);
-				
-				if (closed) {
-					break;
-				}
-			}
-		} catch (IOException e) {}
-		
-		close();
-	}
-	
-	/**
-	 * Reads the request from the connection's input stream.
-	 * 
-	 * @return
-	 * 		An {@link HttpRequest} or null if the input stream is closed
-	 * 
-	 * @throws IOException
-	 */
-	private HttpRequest readRequest() throws IOException {
-		
-		// read the request line and the headers
-		
-		String requestLine = readLine();
-		
-		if (requestLine == null) {
-			return null;
-		}
-		
-		String[] parts = requestLine.replaceAll("\\s+", " ").split(" ");
-		String method = parts[0];
-		String path = parts[1].replaceAll("%20", " ");
-		String version = parts[2];
-		
-		HashMap<String, String> headers = new HashMap<>();
-		
-		while (true) {
-			String line = readLine();
-			
-			if (line.length() == 0) {
-				break;
-			}
-			
-			parseHeader(headers, line);
-		}
-		
-		
-		// read the body if present and possible to extract
-		
-		String message = null;
-		
-		if (method.equals("POST") || method.equals("PUT")) {
-			if (!headers.containsKey("content-length")) {
-				return null;
-			}
-			
-			int contentLength = Integer.parseInt(headers.get("content-length"));
-			message = new String(readCount(contentLength), StandardCharsets.UTF_8);
-		}
-		
-		
-		// construct and return the request
-		
-		return new HttpRequest(requestLine, method, path, version, headers, message);
-	}
-	
-	/**
-	 * Writes the appropriate response to the connection's output stream.
-	 * 
-	 * @param request
-	 * 		The {@link HttpRequest} determining the type of the response
-	 * 
-	 * @return
-	 * 		A boolean indicating whether the client requested to close the connection
-	 * 
-	 * @throws IOException
-	 */
-	public boolean writeResponse(HttpRequest request) throws IOException {
-		if (!request.getVersion().equals("HTTP/1.1")) {
-			writeResponse("text/html", 501);
-			return false;
-		}
-		
-		HashMap<String, String> headers = request.getHeaders();
-		
-		if (!headers.containsKey("host")) {
-			writeResponse("text/html", 400);
-			return false;
-		}
-		
-		String method = request.getMethod();
-		String path = request.getPath();
-		
-		if (path.endsWith("/")) {
-			path += "index.html";
-		}
-		
-		File file = new File(PATH + path);
-		
-		if (method.equals("HEAD") || method.equals("GET")) {
-			if (!file.exists()) {
-				if (method.equals("HEAD")) {
-					writeResponseHeaders("text/html", 404);
-				} else {
-					writeResponse("text/html", 404);
-				}
-				
-				return false;
-			}
-			
-			boolean isModified = true;
-			
-			if (headers.containsKey("if-modified-since")) {
-				String dateString = headers.get("if-modified-since");
-				ZonedDateTime zdt = ZonedDateTime.parse(dateString, DateTimeFormatter.RFC_1123_DATE_TIME);
-				long time = Date.from(zdt.toInstant()).getTime();
-				long lastTime = file.lastModified();
-				
-				isModified = (time < lastTime);
-			}
-			
-			if (isModified) {
-				String mime = getMIME(path);
-				byte[] content = Files.readAllBytes(Paths.get(file.getPath()));
-				
-				if (method.equals("HEAD")) {
-					writeResponseHeaders(mime, 200, content);
-				} else {
-					writeResponse(mime, 200, content);
-				}
-			} else {
-				writeResponseHeaders("text/html", 304, null, new Date(file.lastModified()));
-			}
-		} else {
-			String message = request.getBody();
-			
-			if (method.equals("PUT")) {
-				writeTextFile(PATH + path, message);
-				writeResponse("text/plain", 200, message.getBytes());
-			}
-			else if (file.exists()) {
-				String content = new String(Files.readAllBytes(Paths.get(file.getPath())));
-				writeTextFile(PATH + path, content + message);
-				writeResponse("text/plain", 200, (content + message).getBytes());
-			}
-			else {
-				writeResponse("text/html", 404);
-			}
-		}
-		
-		return headers.containsKey("connection") && headers.get("connection").equals("close");
-	}
-	
-	/**
-	 * Writes the response only containing headers to the connection's output stream.
-	 * 
-	 * @param mime
-	 * 		The MIME type of the response
-	 * @param statusCode
-	 * 		The status code of the response
-	 * 
-	 * @throws IOException
-	 */
-	private void writeResponseHeaders(String mime, int statusCode) throws IOException {
-		writeResponse(mime, statusCode, null, null, true);
-	}
-	
-	/**
-	 * Writes the response only containing headers to the connection's output stream.
-	 * 
-	 * @param mime
-	 * 		The MIME type of the response
-	 * @param statusCode
-	 * 		The status code of the response
-	 * @param message
-	 * 		The message of the response
-	 * 
-	 * @throws IOException
-	 */
-	private void writeResponseHeaders(String mime, int statusCode, byte[] message) throws IOException {
-		writeResponse(mime, statusCode, message, null, true);
-	}
-	
-	/**
-	 * Writes the response only containing headers to the connection's output stream.
-	 * 
-	 * @param mime
-	 * 		The MIME type of the response
-	 * @param statusCode
-	 * 		The status code of the response
-	 * @param message
-	 * 		The message of the response
-	 * @param lastModified
-	 * 		The date of the last modification of the resource composing the given message
-	 * 
-	 * @throws IOException
-	 */
-	private void writeResponseHeaders(String mime, int statusCode, byte[] message, Date lastModified) throws IOException {
-		writeResponse(mime, statusCode, message, lastModified, true);
-	}
-	
-	/**
-	 * Writes the response (with body) to the connection's output stream.
-	 * 
-	 * @param mime
-	 * 		The MIME type of the response
-	 * @param statusCode
-	 * 		The status code of the response
-	 * 
-	 * @throws IOException
-	 */
-	private void writeResponse(String mime, int statusCode) throws IOException {
-		writeResponse(mime, statusCode, null, null, false);
-	}
-	
-	/**
-	 * Writes the response (with body) to the connection's output stream.
-	 * 
-	 * @param mime
-	 * 		The MIME type of the response
-	 * @param statusCode
-	 * 		The status code of the response
-	 * @param message
-	 * 		The message of the response
-	 * 
-	 * @throws IOException
-	 */
-	private void writeResponse(String mime, int statusCode, byte[] message) throws IOException {
-		writeResponse(mime, statusCode, message, null, false);
-	}
-	
-	/**
-	 * Writes the response to the connection's output stream.
-	 * 
-	 * @param mime
-	 * 		The MIME type of the response
-	 * @param statusCode
-	 * 		The status code of the response
-	 * @param message
-	 * 		The message of the response
-	 * @param lastModified
-	 * 		The date of the last modification of the resource composing the given message
-	 * @param HEAD
-	 * 		A boolean that indicates whether it is a HEAD request (thus omitting the response body)
-	 * 
-	 * @throws IOException
-	 */
-	private void writeResponse(String mime, int statusCode, byte[] message, Date lastModified, boolean HEAD) throws IOException {
-		String body = "<h1>200 OK</h1>";
-		
-		switch (statusCode) {
-		case 200:
-			writeLine("HTTP/1.1 200 OK");
-			break;
-			
-		case 304:
-			writeLine("HTTP/1.1 304 Not Modified");
-			
-			if (lastModified != null) {
-			    SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
-			    dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
-			    
-			    writeLine("Last-Modified: " + dateFormat.format(lastModified));
-			}
-			
-			body = "<h1>304 Not Modified</h1>";
-			break;
-			
-		case 400:
-			writeLine("HTTP/1.1 400 Bad Request");
-			body = "<h1>400 Bad Request</h1>";
-			break;
-			
-		case 404:
-			writeLine("HTTP/1.1 404 Not Found");
-			body = "<h1>404 Not Found</h1>";
-			break;
-			
-		case 501:
-			writeLine("HTTP/1.1 501 Not Implemented");
-			body = "<h1>501 Not Implemented</h1>";
-			break;
-		
-		case 500:
-		default:
-			writeLine("HTTP/1.1 500 Server Error");
-			body = "<h1>500 Server Error</h1>";
-			break;
-		}
-		
-		if (message == null) {
-			message = String.join("\n", new String[]{
-				"<!DOCTYPE html>",
-				"<head>",
-				"  <meta charset='utf-8'>",
-				"  <title>" + statusCode + "</title>",
-				"</head>",
-				"<body>",
-				"",
-				body,
-				"",
-				"</body>",
-				"</html>"
-			}).getBytes();
-		}
-		
-		String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC));
-		
-		writeLine("Date: " + date);
-		writeLine("Content-Type: " + mime);
-		writeLine("Content-Length: " + message.length);
-		writeLine("");
-		
-		if (!HEAD) {
-			response.write(message);
-		}
-		
-		response.flush();
-	}
-	
-	/**
-	 * Closes the HTTP connection.
-	 * After this call, the connection cannot be used anymore.
-	 */
-	private void close() {
-		try {
-			request.close();
-			response.close();
-			socket.close();
-		} catch (IOException e) {}
-	}
-	
-	/**
-	 * Parses the given line and puts the field and value of the header into the given map.
-	 * It links the field name (key) of the header to the value (value) of the header.
-	 * 
-	 * @param headers
-	 * 		A map to put the parsed headers in
-	 * @param line
-	 * 		A line that represents an unparsed header
-	 */
-	private void parseHeader(HashMap<String, String> headers, String line) {
-		int index = line.indexOf(":");		
-		String name = line.substring(0, index).trim().toLowerCase();
-		String value = line.substring(index + 1).trim();
-		
-		headers.put(name, value);
-	}
-	
-	/**
-	 * Reads a line from the connection's input stream.
-	 * 
-	 * @return
-	 * 		The line that has been read or null if the input stream is closed
-	 * 
-	 * @throws IOException
-	 */
-	private String readLine() throws IOException {
-		String line = "";
-		
-		while (true) {
-			int o = request.read();
-			
-			if (o == -1) {
-				break;
-			}
-			
-			char c = (char) o;
-			
-			if (c == '\n') {
-				return line.trim();
-			}
-			
-			if (c != '\r') {
-				line += c;
-			}
-		}
-		
-		return null;
-	}
-	
-	/**
-	 * Reads the given number of bytes from the connection's input stream.
-	 * Used when "Content-Length" header is present
-	 * 
-	 * @param count
-	 * 		The number of bytes to read
-	 * 
-	 * @return
-	 * 		An array of bytes that has been read
-	 * 
-	 * @throws IOException
-	 */
-	private byte[] readCount(int count) throws IOException {
-		byte[] body = new byte[count];
-		
-		for (int i = 0; i < count; i++) {
-			body[i] = (byte) request.read();
-		}
-		
-		return body;
-	}
-	
-	/**
-	 * Writes a line to the connection's output stream.
-	 * 
-	 * @param string
-	 * 		The line to write
-	 * 
-	 * @throws IOException
-	 */
-	private void writeLine(String string) throws IOException {
-		byte[] bytes = (string + "\r\n").getBytes();
-		response.write(bytes);
-	}
-	
-	/**
-	 * Returns the MIME type of the given extension name.
-	 * 
-	 * @param name
-	 * 		The name of a resource extension
-	 * 
-	 * @return
-	 * 		The MIME type of the given extension name
-	 */
-	private String getMIME(String name) {
-		int index = name.lastIndexOf(".");
-		
-		if (index < 0) {
-			return "text/html";
-		}
-		
-		String extension = name.substring(index + 1);
-		
-		switch (extension) {
-		case "html":
-			return "text/html";
-			
-		case "txt":
-			return "text/plain";
-			
-		case "png":
-			return "image/png";
-		
-		case "jpg":
-			return "image/jpeg";
-			
-		case "gif":
-			return "image/gif";
-			
-		case "bmp":
-			return "image/bmp";
-			
-		case "mp3":
-			return "audio/mpeg";
-			
-		case "mp4":
-			return "video/mp4";
-			
-		default:
-			return "application/octet-stream";
-		}
-	}
-	
-	/**
-	 * Writes a text file with the given content to the given relative path.
-	 * 
-	 * @param path
-	 * 		The relative path to write the file to	
-	 * @param content
-	 * 		The textual content to write to the file
-	 */
-	private void writeTextFile(String path, String content) {
-		try {
-			File file = new File(path);
-			file.getParentFile().mkdirs();
-			
-			FileWriter out = new FileWriter(file);
-			out.write(content);
-			out.close();
-		} catch (Exception e) {
-			System.out.println("Error: couldn't save text file '" + path + "'.");
-		}
-	}
-}
+package main;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Represents an HTTP/1.1 persistent server connection.
+ * 
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class HttpConnection implements Runnable {
+
+	private static final int MAX_HEADER_SIZE = 65536;
+	private static final int MAX_BATCH = 16;
+	
+	private static final String BOUNDARY = "BYTERANGES" + Long.toHexString(Double.doubleToLongBits(Math.random()));
+	private static final byte[] MULTIPART_END = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+	
+	// the permissions of the files created by PUT requests (see getDefaultPermissions())
+	
+	private static Set<PosixFilePermission> defaultPermissions = null;
+	
+	private final String PATH;
+	private final HttpServer server;
+	private final ContentCache cache;
+	private final ETagCache etags;
+	private final FileIndex index;
+	private final Snapshot snapshot;
+	private final AccessLog accessLog;
+	private final Metrics metrics;
+	private final ConcurrencyLimiter limiter;
+	private final RateLimiter rateLimiter;
+	private final String statsPath;
+	private final int retryAfter;
+	private final int chunkSize;
+	private final int maxRequests;
+	
+	private SocketChannel channel;
+	private boolean blocking;
+	private ResponseBuffer response;
+	private ResponseWriter writer;
+	
+	private final RequestParser parser;
+	private final HttpRequest request = new HttpRequest();
+	private boolean suspended = false;
+	private int requestCount = 0;
+	private boolean closed = false;
+	private String client = null;
+	private RateLimiter.Client rateClient = null;
+	
+	// the time the connection started waiting for a request (0 if it is not waiting), read by the idle connection reaper
+	
+	private volatile long idleSince = 0;
+	
+	// the body of the request being read: the number of bytes left to read (-1 if its header section
+	// has not been read yet) and the temporary file it is streamed to (null if it is discarded)
+	
+	private long bodyRemaining = -1;
+	private Path upload = null;
+	private FileChannel uploadChannel = null;
+	
+	// the producer of the body being streamed (null if there is none), the stream it writes to,
+	// and whether the connection is closed once the body is complete
+	
+	private BodyProducer stream = null;
+	private ChunkedOutputStream streamBody = null;
+	private boolean streamClosing = false;
+	
+	// the times at which the requests whose responses have not been written yet were admitted by the concurrency limiter
+	
+	private final long[] admitted = new long[MAX_BATCH + 1];
+	private int admittedCount = 0;
+	
+	/**
+	 * Constructs an HttpConnection from the given components.
+	 * 
+	 * @param channel
+	 * 		The (blocking) socket channel the connection will use
+	 * @param server
+	 * 		The {@link HttpServer} the connection belongs to
+	 */
+	public HttpConnection(SocketChannel channel, HttpServer server) {
+		this(channel, new ResponseBuffer(server.getBufferPool()), server);
+	}
+	
+	/**
+	 * Constructs an HttpConnection from the given components.
+	 * If the channel is non-blocking, the transport does the socket I/O itself (see {@link NioConnection}):
+	 * it calls {@link #receive()} and {@link #handleRequests()} when the channel is readable and writes the
+	 * given buffer to the channel when it is writable.
+	 * 
+	 * @param channel
+	 * 		The socket channel the connection will use
+	 * @param response
+	 * 		The buffer to write the responses to
+	 * @param server
+	 * 		The {@link HttpServer} the connection belongs to
+	 */
+	public HttpConnection(SocketChannel channel, ResponseBuffer response, HttpServer server) {
+		this.channel = channel;
+		this.blocking = channel.isBlocking();
+		this.response = response;
+		this.writer = new ResponseWriter(response);
+		this.parser = new RequestParser(server.getBufferPool(), MAX_HEADER_SIZE);
+		
+		this.server = server;
+		
+		PATH = server.getConfig().getPath();
+		cache = server.getContentCache();
+		etags = server.getETagCache();
+		index = server.getFileIndex();
+		snapshot = server.getSnapshot();
+		accessLog = server.getAccessLog();
+		metrics = server.getMetrics();
+		limiter = server.getConcurrencyLimiter();
+		rateLimiter = server.getRateLimiter();
+		statsPath = server.getStatsPath();
+		retryAfter = server.getRetryAfter();
+		chunkSize = server.getChunkSize();
+		maxRequests = server.getMaxRequests();
+		
+		server.connectionOpened(this);
+	}
+	
+	/**
+	 * Runs the thread handling the connection with a client.
+	 */
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				boolean closed = handleRequests();
+				
+				if (closed || receive() < 0) {
+					break;
+				}
+			}
+		} catch (IOException e) {
+		} finally {
+			close();
+		}
+	}
+	
+	/**
+	 * Reads the bytes available from the socket. If the channel is blocking, this call waits for at least one byte.
+	 * 
+	 * @return
+	 * 		The number of bytes read or -1 if the client closed the connection
+	 * 
+	 * @throws IOException
+	 */
+	public int receive() throws IOException {
+		if (!blocking) {
+			return parser.fill(channel);
+		}
+		
+		// the write buffers are not needed while waiting for the next request
+		
+		response.park();
+		idleSince = System.currentTimeMillis();
+		
+		try {
+			return parser.fill(channel);
+		} finally {
+			idleSince = 0;
+		}
+	}
+	
+	/**
+	 * Returns whether the connection has been waiting for a request for longer than the given timeout.
+	 * Only blocking connections keep track of this; this method can be called from any thread.
+	 * 
+	 * @param now
+	 * 		The current time in milliseconds
+	 * @param timeout
+	 * 		The idle timeout in milliseconds
+	 * 
+	 * @return
+	 * 		Whether the connection is idle for too long
+	 */
+	public boolean isIdle(long now, long timeout) {
+		long since = idleSince;
+		return since != 0 && now - since > timeout;
+	}
+	
+	/**
+	 * Closes the socket from another thread, so the thread handling the connection stops waiting and closes it.
+	 */
+	public void abort() {
+		try {
+			channel.close();
+		} catch (IOException e) {}
+	}
+	
+	/**
+	 * Rejects the connection without reading a request, because the server is overloaded:
+	 * writes the given pre-encoded response and closes the connection.
+	 * 
+	 * @param rejection
+	 * 		The complete response (e.g. "503 Service Unavailable" with "Connection: close")
+	 * @param statusCode
+	 * 		The status code of the response, for the access log
+	 */
+	public void reject(byte[] rejection, int statusCode) {
+		try {
+			ByteBuffer bytes = ByteBuffer.wrap(rejection);
+			
+			while (bytes.hasRemaining()) {
+				channel.write(bytes);
+			}
+			
+			channel.shutdownOutput();
+		} catch (IOException e) {
+		} finally {
+			close();
+		}
+		
+		if (accessLog != null) {
+			accessLog.log(getClient(), null, statusCode, 0, null);
+		}
+	}
+	
+	/**
+	 * Gives the read and write buffers back to the shared pool if the connection is idle: no bytes are waiting
+	 * to be handled or written. The buffers are taken from the pool again when the connection is used.
+	 * 
+	 * @return
+	 * 		Whether the connection holds no buffers anymore
+	 */
+	public boolean park() {
+		return parser.park() & response.park();
+	}
+	
+	/**
+	 * Handles all the requests that have been received completely and writes the appropriate responses.
+	 * A malformed request is answered with "400 Bad Request", after which the connection is closed.
+	 * 
+	 * Pipelined requests are handled in order and their responses are written to the socket together,
+	 * in batches of at most {@value #MAX_BATCH} responses. If the channel is non-blocking, handling stops
+	 * after a full batch, so the transport can write it before calling this method again (see {@link #isSuspended()}).
+	 * The same holds for every step of a streamed body, so a body is never produced faster than it is sent.
+	 * 
+	 * @return
+	 * 		A boolean indicating whether the connection has to be closed
+	 * 
+	 * @throws IOException
+	 */
+	public boolean handleRequests() throws IOException {
+		suspended = false;
+		
+		if (stream != null) {
+			if (!continueStream()) {
+				suspended = true;
+				return false;
+			}
+			
+			if (streamClosing) {
+				return true;
+			}
+		}
+		
+		try {
+			int batch = 0;
+			
+			while (true) {
+				HttpRequest request = readRequest();
+				
+				if (request == null) {
+					flush();
+					return false;
+				}
+				
+				// the last request allowed on the connection is answered with "Connection: close"
+				
+				boolean last = (maxRequests > 0 && ++requestCount >= maxRequests);
+				boolean closed;
+				
+				writer.setClosing(last || request.isHeader("connection", "close"));
+				
+				try {
+					closed = handleRequest(request) || last;
+				} finally {
+					discardUpload();
+				}
+				
+				parser.release();
+				
+				if (stream != null && !continueStream()) {
+					streamClosing = closed;
+					suspended = true;
+					return false;
+				}
+				
+				if (closed) {
+					flush();
+					return true;
+				}
+				
+				if (++batch == MAX_BATCH) {
+					if (!blocking) {
+						suspended = true;
+						return false;
+					}
+					
+					flush();
+					batch = 0;
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			writer.setClosing(true);
+			writeResponse("text/html", 400);
+			
+			if (accessLog != null) {
+				accessLog.log(getClient(), null, 400, writer.getBodyLength(), null);
+			}
+			
+			flush();
+			return true;
+		}
+	}
+	
+	/**
+	 * Returns whether the last call to {@link #handleRequests()} stopped after a full batch of responses,
+	 * leaving received requests unhandled. If so, it has to be called again once the batch has been written.
+	 * 
+	 * @return
+	 * 		Whether requests are waiting to be handled
+	 */
+	public boolean isSuspended() {
+		return suspended;
+	}
+	
+	/**
+	 * Continues the streamed body. On a blocking channel, the whole body is produced, every step being written before
+	 * the next one is produced. On a non-blocking channel, only the next step is produced: the transport writes it
+	 * before calling {@link #handleRequests()} again.
+	 * 
+	 * @return
+	 * 		Whether the body is complete
+	 * 
+	 * @throws IOException
+	 */
+	private boolean continueStream() throws IOException {
+		do {
+			if (stream.produce(streamBody)) {
+				stream = null;
+				streamBody = null;
+				return true;
+			}
+			
+			flush();
+		} while (blocking);
+		
+		return false;
+	}
+	
+	/**
+	 * Handles the given request: writes the appropriate response.
+	 * 
+	 * @param request
+	 * 		The {@link HttpRequest} to handle
+	 * 
+	 * @return
+	 * 		A boolean indicating whether the connection has to be closed
+	 * 
+	 * @throws IOException
+	 */
+	private boolean handleRequest(HttpRequest request) throws IOException {
+		
+		// the logged part of the body is read first, as writing the response may move the body to its destination
+		
+		byte[] body = (accessLog != null) ? accessLog.readBody(request) : null;
+		
+		
+		// write the appropriate response (every response honours "Connection: close", so a pipeline ends there)
+		
+		long start = System.nanoTime();
+		long appended = response.getAppended();
+		
+		boolean closed = writeResponse(request) || request.isHeader("connection", "close");
+		
+		metrics.recordResponse(request.getMethod(), writer.getStatusCode(), System.nanoTime() - start, response.getAppended() - appended);
+		
+		
+		// log the request
+		
+		if (accessLog != null) {
+			accessLog.log(getClient(), request, writer.getStatusCode(), writer.getBodyLength(), body);
+		}
+		
+		return closed;
+	}
+	
+	/**
+	 * Returns the address of the client, as logged in the access log.
+	 * 
+	 * @return
+	 * 		The IP address of the client or "-" if it is unknown
+	 */
+	private String getClient() {
+		if (client == null) {
+			try {
+				client = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+			} catch (IOException | RuntimeException e) {
+				client = "-";
+			}
+		}
+		
+		return client;
+	}
+	
+	/**
+	 * Reads the next request from the bytes received so far.
+	 * The body of a PUT or POST request is streamed to a temporary file next to the target resource
+	 * as it is received, so only the parser's buffer is held in memory, however large the body is.
+	 * The body of a POST request to a missing resource is discarded.
+	 * 
+	 * @return
+	 * 		An {@link HttpRequest} or null if the request has not been received completely yet
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the request is malformed
+	 * @throws IOException
+	 */
+	private HttpRequest readRequest() throws IllegalArgumentException, IOException {
+		
+		// read the request line and the headers
+		
+		if (bodyRemaining < 0) {
+			long start = System.nanoTime();
+			
+			if (!parser.parse(request)) {
+				return null;
+			}
+			
+			metrics.recordParse(System.nanoTime() - start);
+			
+			String method = request.getMethod();
+			
+			if (!method.equals(HttpRequest.POST) && !method.equals(HttpRequest.PUT)) {
+				return request;
+			}
+			
+			long contentLength = request.getNumericHeader("content-length");
+			
+			if (contentLength < 0) {
+				throw new IllegalArgumentException("missing content-length");
+			}
+			
+			File file = new File(getFilePath(request));
+			
+			if (method.equals(HttpRequest.PUT) || file.exists()) {
+				file.getParentFile().mkdirs();
+				upload = Files.createTempFile(file.getParentFile().toPath(), ".upload-", ".tmp");
+				uploadChannel = FileChannel.open(upload, StandardOpenOption.WRITE);
+			}
+			
+			bodyRemaining = contentLength;
+		}
+		
+		
+		// read the body
+		
+		while (bodyRemaining > 0) {
+			ByteBuffer bytes = parser.consume(bodyRemaining);
+			
+			if (!bytes.hasRemaining()) {
+				return null;
+			}
+			
+			bodyRemaining -= bytes.remaining();
+			
+			while (uploadChannel != null && bytes.hasRemaining()) {
+				uploadChannel.write(bytes);
+			}
+		}
+		
+		if (uploadChannel != null) {
+			uploadChannel.close();
+			uploadChannel = null;
+		}
+		
+		request.setBody(upload);
+		bodyRemaining = -1;
+		
+		return request;
+	}
+	
+	/**
+	 * Deletes the temporary file of the request body being read or just handled, if any.
+	 */
+	private void discardUpload() {
+		bodyRemaining = -1;
+		
+		try {
+			if (uploadChannel != null) {
+				uploadChannel.close();
+				uploadChannel = null;
+			}
+			
+			if (upload != null) {
+				Files.deleteIfExists(upload);
+				upload = null;
+			}
+		} catch (IOException e) {
+			System.out.println("Error: couldn't delete temporary file '" + upload + "'.");
+			upload = null;
+		}
+	}
+	
+	/**
+	 * Returns the relative path of the file the given request refers to.
+	 * 
+	 * @param request
+	 * 		The request
+	 * 
+	 * @return
+	 * 		The relative path of the requested file ("index.html" for directories)
+	 */
+	private String getFilePath(HttpRequest request) {
+		String path = request.getPath();
+		
+		if (path.endsWith("/")) {
+			path += "index.html";
+		}
+		
+		return PATH + path;
+	}
+	
+	/**
+	 * Writes the appropriate response to the connection's output stream.
+	 * 
+	 * @param request
+	 * 		The {@link HttpRequest} determining the type of the response
+	 * 
+	 * @return
+	 * 		A boolean indicating whether the client requested to close the connection
+	 * 
+	 * @throws IOException
+	 */
+	public boolean writeResponse(HttpRequest request) throws IOException {
+		if (!request.getVersion().equals(HttpRequest.HTTP_1_1)) {
+			writeResponse("text/html", 501);
+			return false;
+		}
+		
+		if (!request.hasHeader("host")) {
+			writeResponse("text/html", 400);
+			return false;
+		}
+		
+		String method = request.getMethod();
+		String path = request.getPath();
+		
+		if (statsPath != null && (path.equals(statsPath) || path.startsWith(statsPath + "?"))
+				&& (method.equals(HttpRequest.GET) || method.equals(HttpRequest.HEAD))) {
+			writeStatsResponse(path, method.equals(HttpRequest.HEAD));
+			return false;
+		}
+		
+		// requests of clients exceeding their rate are rejected before any work is done for them
+		
+		if (rateLimiter != null) {
+			if (rateClient == null) {
+				rateClient = rateLimiter.getClient(getClient());
+			}
+			
+			long wait = rateClient.acquire(path);
+			
+			if (wait > 0) {
+				writeRetryResponse(429, (int) Math.max(1, (wait + 999999999) / 1000000000), method.equals(HttpRequest.HEAD));
+				return false;
+			}
+		}
+		
+		if (limiter == null) {
+			return writeResourceResponse(request, method, path);
+		}
+		
+		// requests above the concurrency limit are rejected as well
+		
+		if (!limiter.acquire()) {
+			writeRetryResponse(503, retryAfter, method.equals(HttpRequest.HEAD));
+			return false;
+		}
+		
+		// an admitted request is in flight until its response has been written (see outputWritten())
+		
+		if (admittedCount == admitted.length) {
+			limiter.release(admitted[0]);
+			System.arraycopy(admitted, 1, admitted, 0, --admittedCount);
+		}
+		
+		admitted[admittedCount++] = System.nanoTime();
+		
+		return writeResourceResponse(request, method, path);
+	}
+	
+	/**
+	 * Called whenever all of the output has been written to the socket: releases the requests admitted by the
+	 * concurrency limiter whose responses are complete (all of them but a streamed response that is still being produced).
+	 */
+	public void outputWritten() {
+		int complete = admittedCount - ((stream != null) ? 1 : 0);
+		
+		if (complete <= 0) {
+			return;
+		}
+		
+		for (int i = 0; i < complete; i++) {
+			limiter.release(admitted[i]);
+		}
+		
+		admitted[0] = admitted[admittedCount - 1];
+		admittedCount -= complete;
+	}
+	
+	/**
+	 * Writes the response to a request for a resource of the document root: a GET or HEAD request answered
+	 * from the snapshot or the file system, or a PUT or POST request modifying a file.
+	 * 
+	 * @param request
+	 * 		The {@link HttpRequest} determining the type of the response
+	 * @param method
+	 * 		The method of the request
+	 * @param path
+	 * 		The path of the requested resource
+	 * 
+	 * @return
+	 * 		A boolean indicating whether the client requested to close the connection
+	 * 
+	 * @throws IOException
+	 */
+	private boolean writeResourceResponse(HttpRequest request, String method, String path) throws IOException {
+		if (method.equals(HttpRequest.HEAD) || method.equals(HttpRequest.GET)) {
+			boolean HEAD = method.equals(HttpRequest.HEAD);
+			Snapshot.Entry entry = (snapshot != null) ? snapshot.get(path) : null;
+			
+			if (entry != null) {
+				writeSnapshotResponse(request, entry, HEAD);
+				return request.isHeader("connection", "close");
+			}
+			
+			FileInfo info = index.get(path);
+			
+			if (info == null) {
+				if (HEAD) {
+					writeResponseHeaders("text/html", 404);
+				} else {
+					writeResponse("text/html", 404);
+				}
+				
+				return false;
+			}
+			
+			// the cached content is only used if it is the current version of the file
+			
+			File file = info.getFile();
+			CachedContent content = cache.get(info.getPath());
+			
+			if (content != null && content.getLastModified() != info.getLastModified()) {
+				content = null;
+			}
+			
+			long lastTime = info.getLastModified();
+			long size = (content != null) ? content.getSize() : info.getSize();
+			String etag = etags.get(info.getPath(), file, lastTime, size);
+			
+			// select the requested ranges, a compressed variant or the whole resource (before evaluating the
+			// preconditions, as a "304 Not Modified" response carries the entity tag of the selected variant)
+			
+			String mime = info.getMIME();
+			String range = request.getHeader("range");
+			ByteRanges ranges = null;
+			
+			if (range != null && !HEAD && isRangeValid(request, lastTime, size, etag)) {
+				ranges = ByteRanges.parse(range, size);
+			}
+			
+			String encoding = (ranges == null && ContentCache.isCompressible(mime)) ? getContentEncoding(request) : null;
+			
+			if (encoding != null && !hasEncodedVariant(info, encoding)) {
+				encoding = null;
+			}
+			
+			if (writePreconditionResponse(request, mime, lastTime, size, etag, encoding)) {
+				return request.isHeader("connection", "close");
+			}
+			
+			if (ranges != null) {
+				writeRangeResponse(mime, content, file, ranges, etag);
+				return request.isHeader("connection", "close");
+			}
+			
+			if (encoding != null) {
+				writeEncodedResponse(info, encoding, etag, HEAD);
+				return request.isHeader("connection", "close");
+			}
+			
+			if (content == null) {
+				content = cache.load(info.getPath(), file, lastTime, mime);
+			}
+			
+			if (content != null) {
+				writeCachedResponse(content, etag, HEAD);
+			} else {
+				writeFileResponse(mime, file, null, etag, HEAD);
+			}
+		} else {
+			
+			// modify the file while holding its lock, but write the response after releasing it
+			
+			if (path.endsWith("/")) {
+				path += "index.html";
+			}
+			
+			File file = new File(PATH + path);
+			Path message = request.getBody();
+			ReentrantLock lock = server.getFileLock(PATH + path);
+			int statusCode;
+			long length = 0;
+			
+			lock.lock();
+			
+			try {
+				String ifMatch = request.getHeader("if-match");
+				
+				if (ifMatch != null && !(file.isFile() && matchesFile(ifMatch, PATH + path, file))) {
+					statusCode = 412;
+				}
+				else if (method.equals(HttpRequest.PUT) && message != null) {
+					writeFile(PATH + path, message);
+					index.update(path);
+					overrideSnapshot(path);
+					statusCode = 200;
+				}
+				else if (message != null && file.exists()) {
+					length = appendFile(PATH + path, message);
+					index.update(path);
+					overrideSnapshot(path);
+					statusCode = 200;
+				}
+				else {
+					statusCode = 404;
+				}
+			} finally {
+				lock.unlock();
+			}
+			
+			if (statusCode != 200) {
+				writeResponse("text/html", statusCode);
+			}
+			else if (method.equals(HttpRequest.PUT)) {
+				writeFileResponse("text/plain", file, null, null, false);
+			}
+			else {
+				writeResponse("text/plain", 200, Long.toString(length).getBytes(StandardCharsets.US_ASCII));
+			}
+		}
+		
+		return request.isHeader("connection", "close");
+	}
+	
+	/**
+	 * Returns whether the given "If-Match" header matches the current version of the given file (with the strong comparison).
+	 * 
+	 * @param ifMatch
+	 * 		The value of the header
+	 * @param path
+	 * 		The resolved path of the file
+	 * @param file
+	 * 		The file
+	 * 
+	 * @return
+	 * 		Whether the header matches the entity tag of the file
+	 */
+	private boolean matchesFile(String ifMatch, String path, File file) {
+		long lastTime = file.lastModified();
+		long size = file.length();
+		
+		return ETagCache.matches(ifMatch, etags.get(path, file, lastTime, size), lastTime, size, null, false);
+	}
+	
+	/**
+	 * Evaluates the preconditions of the given request for a resource with the given validators and writes the
+	 * response if one of them fails: "412 Precondition Failed" or "304 Not Modified". The entity tags take
+	 * precedence over the dates. "If-Match" is compared with the entity tag of the selected variant of the resource,
+	 * and a "304 Not Modified" response carries that tag.
+	 * 
+	 * @param request
+	 * 		The request
+	 * @param mime
+	 * 		The MIME type of the resource
+	 * @param lastTime
+	 * 		The time of the last modification of the resource
+	 * @param size
+	 * 		The size of the resource in bytes
+	 * @param etag
+	 * 		The entity tag of the resource
+	 * @param encoding
+	 * 		The content encoding of the selected variant or null if the resource is sent as it is
+	 * 
+	 * @return
+	 * 		Whether a response has been written
+	 * 
+	 * @throws IOException
+	 */
+	private boolean writePreconditionResponse(HttpRequest request, String mime, long lastTime, long size, String etag, String encoding) throws IOException {
+		String ifMatch = request.getHeader("if-match");
+		
+		if (ifMatch != null && !ETagCache.matches(ifMatch, etag, lastTime, size, encoding, false)) {
+			writeResponse("text/html", 412);
+			return true;
+		}
+		
+		boolean isModified = true;
+		String ifNoneMatch = request.getHeader("if-none-match");
+		
+		if (ifNoneMatch != null) {
+			isModified = !ETagCache.matches(ifNoneMatch, etag, lastTime, size, encoding, true);
+		}
+		else {
+			String dateString = request.getHeader("if-modified-since");
+			long time = (dateString != null) ? ResponseWriter.parseDate(dateString) : -1;
+			
+			isModified = (time < 0 || time / 1000 < lastTime / 1000);
+		}
+		
+		if (!isModified) {
+			writeNotModified(lastTime, (encoding != null) ? ETagCache.getEncodedTag(etag, encoding) : etag, ContentCache.isCompressible(mime));
+			return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Writes the response to the given GET or HEAD request for a resource of the snapshot: the requested ranges,
+	 * its gzip variant or the whole resource, all of which are views of the mapped snapshot.
+	 * 
+	 * @param request
+	 * 		The request
+	 * @param entry
+	 * 		The entry of the snapshot
+	 * @param HEAD
+	 * 		A boolean that indicates whether it is a HEAD request (thus omitting the response body)
+	 * 
+	 * @throws IOException
+	 */
+	private void writeSnapshotResponse(HttpRequest request, Snapshot.Entry entry, boolean HEAD) throws IOException {
+		CachedContent content = entry.getContent();
+		String etag = entry.getETag();
+		String range = request.getHeader("range");
+		ByteRanges ranges = null;
+		
+		if (range != null && !HEAD && isRangeValid(request, content.getLastModified(), content.getSize(), etag)) {
+			ranges = ByteRanges.parse(range, content.getSize());
+		}
+		
+		boolean gzip = (ranges == null && entry.getGzipContent() != null && "gzip".equals(getContentEncoding(request)));
+		
+		if (writePreconditionResponse(request, entry.getMIME(), content.getLastModified(), content.getSize(), etag, gzip ? "gzip" : null)) {
+			return;
+		}
+		
+		if (ranges != null) {
+			writeRangeResponse(entry.getMIME(), content, null, ranges, etag);
+		}
+		else if (gzip) {
+			writeCachedResponse(entry.getGzipContent(), entry.getGzipTag(), HEAD);
+		}
+		else {
+			writeCachedResponse(content, etag, HEAD);
+		}
+	}
+	
+	/**
+	 * Stops serving the file with the given name from the snapshot, if any, as it has been written.
+	 * 
+	 * @param name
+	 * 		The name of the file relative to the document root
+	 */
+	private void overrideSnapshot(String name) {
+		if (snapshot != null) {
+			snapshot.override(name);
+		}
+	}
+	
+	/**
+	 * Writes the response only containing headers to the connection's output stream.
+	 * 
+	 * @param mime
+	 * 		The MIME type of the response
+	 * @param statusCode
+	 * 		The status code of the response
+	 * 
+	 * @throws IOException
+	 */
+	private void writeResponseHeaders(String mime, int statusCode) throws IOException {
+		writeResponse(mime, statusCode, null, null, true);
+	}
+	
+	/**
+	 * Writes the response (with body) to the connection's output stream.
+	 * 
+	 * @param mime
+	 * 		The MIME type of the response
+	 * @param statusCode
+	 * 		The status code of the response
+	 * 
+	 * @throws IOException
+	 */
+	private void writeResponse(String mime, int statusCode) throws IOException {
+		writeResponse(mime, statusCode, null, null, false);
+	}
+	
+	/**
+	 * Writes the response (with body) to the connection's output stream.
+	 * 
+	 * @param mime
+	 * 		The MIME type of the response
+	 * @param statusCode
+	 * 		The status code of the response
+	 * @param message
+	 * 		The message of the response
+	 * 
+	 * @throws IOException
+	 */
+	private void writeResponse(String mime, int statusCode, byte[] message) throws IOException {
+		writeResponse(mime, statusCode, message, null, false);
+	}
+	
+	/**
+	 * Writes the response with the metrics of the server as body, as JSON or (if the query string
+	 * contains "format=prometheus") in the Prometheus text format.
+	 * 
+	 * @param path
+	 * 		The requested path, including the query string
+	 * @param HEAD
+	 * 		A boolean that indicates whether it is a HEAD request (thus omitting the response body)
+	 * 
+	 * @throws IOException
+	 */
+	private void writeStatsResponse(String path, boolean HEAD) throws IOException {
+		int query = path.indexOf('?');
+		boolean prometheus = query >= 0 && path.indexOf("format=prometheus", query) >= 0;
+		
+		String mime = prometheus ? "text/plain; version=0.0.4" : "application/json";
+		String stats = prometheus ? metrics.toPrometheus() : metrics.toJson();
+		
+		writeResponse(mime, 200, stats.getBytes(StandardCharsets.UTF_8), null, HEAD);
+	}
+	
+	/**
+	 * Writes the response with the given cached resource as body to the connection's output stream.
+	 * The body is not copied: a view of the cached body is queued for writing.
+	 * 
+	 * @param content
+	 * 		The cached resource composing the body of the response
+	 * @param etag
+	 * 		The entity tag of the resource
+	 * @param HEAD
+	 * 		A boolean that indicates whether it is a HEAD request (thus omitting the response body)
+	 * 
+	 * @throws IOException
+	 */
+	private void writeCachedResponse(CachedContent content, String etag, boolean HEAD) throws IOException {
+		writer.writeStatusLine(200);
+		writer.writeGeneralHeaders();
+		writer.writeHeader("ETag", etag);
+		writer.endHeaders(content.getHeaders());
+		
+		if (!HEAD) {
+			response.write(content.getBody());
+		}
+	}
+	
+	/**
+	 * Writes the response with the given file as body to the connection's output stream.
+	 * The file is not loaded into memory: its content is transferred directly to the socket.
+	 * 
+	 * @param mime
+	 * 		The MIME type of the response
+	 * @param file
+	 * 		The file composing the body of the response
+	 * @param encoding
+	 * 		The content encoding of the file (e.g. "gzip" for a precompressed file) or null if it is not compressed
+	 * @param etag
+	 * 		The entity tag of the file or null if it is not known
+	 * @param HEAD
+	 * 		A boolean that indicates whether it is a HEAD request (thus omitting the response body)
+	 * 
+	 * @throws IOException
+	 */
+	private void writeFileResponse(String mime, File file, String encoding, String etag, boolean HEAD) throws IOException {
+		FileChannel content = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		long size = content.size();
+		
+		writer.writeStatusLine(200);
+		writer.writeGeneralHeaders();
+		
+		if (etag != null) {
+			writer.writeHeader("ETag", etag);
+		}
+		
+		writer.writeContentType(mime);
+		
+		if (encoding != null) {
+			writer.writeHeader("Content-Encoding", encoding);
+		}
+		
+		writer.writeContentLength(size);
+		
+		if (encoding == null) {
+			writer.writeAcceptRanges();
+		}
+		
+		if (ContentCache.isCompressible(mime)) {
+			writer.writeVary();
+		}
+		
+		writer.endHeaders();
+		
+		if (HEAD) {
+			content.close();
+		} else {
+			response.transfer(content, 0, size);
+		}
+	}
+	
+	/**
+	 * Returns whether the compressed variant of the given file with the given content encoding can be sent without
+	 * compressing the file for this request alone: a precompressed sidecar file (e.g. "index.html.gz") that is at least
+	 * as recent as the file, a variant that is compressed once and kept in the {@link ContentCache}, or (for a file that
+	 * is too large to cache) a gzip variant that is compressed while it is sent and kept as the sidecar of the file.
+	 * A file that is too large to cache is sent uncompressed while another request builds its sidecar, and if it has
+	 * no gzip variant.
+	 * 
+	 * @param info
+	 * 		The metadata of the file of the resource
+	 * @param encoding
+	 * 		The content encoding accepted by the client ("gzip" or "deflate")
+	 * 
+	 * @return
+	 * 		Whether the variant is sent
+	 */
+	private boolean hasEncodedVariant(FileInfo info, String encoding) {
+		if (cache.canCache(info.getSize())) {
+			return true;
+		}
+		
+		if (!encoding.equals("gzip")) {
+			return false;
+		}
+		
+		FileInfo sidecar = index.get(info.getName() + ".gz");
+		
+		if (sidecar != null && sidecar.getLastModified() >= info.getLastModified()) {
+			return true;
+		}
+		
+		return !server.isBuildingSidecar(info.getPath()) && Files.isWritable(info.getFile().toPath().toAbsolutePath().getParent());
+	}
+	
+	/**
+	 * Writes the compressed variant of the given file with the given content encoding, selected by
+	 * {@link #hasEncodedVariant(FileInfo, String)}.
+	 * 
+	 * @param info
+	 * 		The metadata of the file of the resource
+	 * @param encoding
+	 * 		The content encoding accepted by the client ("gzip" or "deflate")
+	 * @param etag
+	 * 		The entity tag of the resource
+	 * @param HEAD
+	 * 		A boolean that indicates whether it is a HEAD request (thus omitting the response body)
+	 * 
+	 * @throws IOException
+	 */
+	private void writeEncodedResponse(FileInfo info, String encoding, String etag, boolean HEAD) throws IOException {
+		etag = ETagCache.getEncodedTag(etag, encoding);
+		
+		if (encoding.equals("gzip")) {
+			FileInfo sidecar = index.get(info.getName() + ".gz");
+			
+			if (sidecar != null && sidecar.getLastModified() >= info.getLastModified()) {
+				writeFileResponse(info.getMIME(), sidecar.getFile(), encoding, etag, HEAD);
+				return;
+			}
+		}
+		
+		CachedContent content = cache.getEncoded(info.getPath(), info.getFile(), info.getLastModified(), info.getMIME(), encoding);
+		
+		if (content != null) {
+			writeCachedResponse(content, etag, HEAD);
+			return;
+		}
+		
+		// a file that is too large to compress in memory is compressed while it is sent, building its sidecar
+		// (unless another request has just claimed it, or the file has grown too large since it was selected)
+		
+		BodyProducer body = null;
+		
+		if (HEAD) {
+			// only the headers are sent
+		}
+		else if (encoding.equals("gzip") && server.startSidecar(info.getPath())) {
+			try {
+				body = new CompressedFileBody(info, server);
+			} catch (IOException e) {
+				server.endSidecar(info.getPath());
+				throw e;
+			}
+		}
+		else {
+			body = new CompressedFileBody(info.getFile().toPath(), encoding);
+		}
+		
+		writeStreamedResponse(info.getMIME(), encoding, etag, body);
+	}
+	
+	/**
+	 * Writes a response whose body is produced while it is sent, with "Transfer-Encoding: chunked", for bodies
+	 * whose length is not known in advance. Only the headers are written right away: the body is produced
+	 * step by step once the request has been handled, every full chunk being sent as soon as possible.
+	 * 
+	 * @param mime
+	 * 		The MIME type of the response
+	 * @param encoding
+	 * 		The content encoding of the body or null if it is not compressed
+	 * @param etag
+	 * 		The entity tag of the body or null if it is not known
+	 * @param producer
+	 * 		The producer of the body or null for a HEAD request (thus omitting the response body)
+	 * 
+	 * @throws IOException
+	 */
+	private void writeStreamedResponse(String mime, String encoding, String etag, BodyProducer producer) throws IOException {
+		writer.writeStatusLine(200);
+		writer.writeGeneralHeaders();
+		
+		if (etag != null) {
+			writer.writeHeader("ETag", etag);
+		}
+		
+		writer.writeContentType(mime);
+		
+		if (encoding != null) {
+			writer.writeHeader("Content-Encoding", encoding);
+		}
+		
+		writer.writeChunked();
+		
+		if (ContentCache.isCompressible(mime)) {
+			writer.writeVary();
+		}
+		
+		writer.endHeaders();
+		
+		if (producer != null) {
+			stream = producer;
+			streamBody = new ChunkedOutputStream(response, this::flush, chunkSize, false);
+		}
+	}
+	
+	/**
+	 * Writes the response with the given byte ranges of a resource as body to the connection's output stream:
+	 * "206 Partial Content" with a single part or a "multipart/byteranges" body, or "416 Range Not Satisfiable"
+	 * if there are no satisfiable ranges. The ranges are not copied: they are views of the cached body or
+	 * regions of the file, transferred directly to the socket.
+	 * 
+	 * @param mime
+	 * 		The MIME type of the resource
+	 * @param content
+	 * 		The cached resource, or null if the file has to be sent
+	 * @param file
+	 * 		The file of the resource
+	 * @param ranges
+	 * 		The requested byte ranges
+	 * @param etag
+	 * 		The entity tag of the resource
+	 * 
+	 * @throws IOException
+	 */
+	private void writeRangeResponse(String mime, CachedContent content, File file, ByteRanges ranges, String etag) throws IOException {
+		int count = ranges.getCount();
+		
+		if (count == 0) {
+			byte[] page = ResponseWriter.getErrorPage(416);
+			
+			writer.writeStatusLine(416);
+			writer.writeGeneralHeaders();
+			writer.writeHeader("Content-Range", "bytes */" + ranges.getSize());
+			writer.writeContentType("text/html");
+			writer.writeContentLength(page.length);
+			writer.endHeaders();
+			response.write(page);
+			
+			return;
+		}
+		
+		FileChannel channel = (content == null) ? FileChannel.open(file.toPath(), StandardOpenOption.READ) : null;
+		
+		writer.writeStatusLine(206);
+		writer.writeGeneralHeaders();
+		writer.writeHeader("ETag", etag);
+		writer.writeAcceptRanges();
+		
+		if (count == 1) {
+			writer.writeHeader("Content-Range", ranges.getContentRange(0));
+			writer.writeContentType(mime);
+			writer.writeContentLength(ranges.getLength(0));
+			writer.endHeaders();
+			
+			writeRange(content, channel, ranges.getStart(0), ranges.getLength(0), true);
+		} else {
+			
+			// the headers of every part are encoded first, as the length of the body has to be known
+			
+			byte[][] parts = new byte[count][];
+			long length = MULTIPART_END.length;
+			
+			for (int i = 0; i < count; i++) {
+				String part = "\r\n--" + BOUNDARY + "\r\n"
+					+ "Content-Type: " + mime + "\r\n"
+					+ "Content-Range: " + ranges.getContentRange(i) + "\r\n\r\n";
+				
+				parts[i] = part.getBytes(StandardCharsets.ISO_8859_1);
+				length += parts[i].length + ranges.getLength(i);
+			}
+			
+			writer.writeContentType("multipart/byteranges; boundary=" + BOUNDARY);
+			writer.writeContentLength(length);
+			writer.endHeaders();
+			
+			for (int i = 0; i < count; i++) {
+				response.write(parts[i]);
+				writeRange(content, channel, ranges.getStart(i), ranges.getLength(i), i == count - 1);
+			}
+			
+			response.write(MULTIPART_END);
+		}
+	}
+	
+	/**
+	 * Appends the given byte range of a resource to the output.
+	 * 
+	 * @param content
+	 * 		The cached resource, or null if the range has to be sent from the file
+	 * @param channel
+	 * 		The channel of the file (if the resource is not cached)
+	 * @param start
+	 * 		The position of the first byte of the range
+	 * @param length
+	 * 		The length of the range in bytes
+	 * @param last
+	 * 		Whether it is the last range of the response (after which the file is closed)
+	 */
+	private void writeRange(CachedContent content, FileChannel channel, long start, long length, boolean last) {
+		if (content != null) {
+			ByteBuffer body = content.getBody();
+			body.position((int) start);
+			body.limit((int) (start + length));
+			
+			response.write(body);
+		} else {
+			response.transfer(channel, start, length, last);
+		}
+	}
+	
+	/**
+	 * Writes the "304 Not Modified" response, which has no body.
+	 * 
+	 * @param lastModified
+	 * 		The time of the last modification of the resource, in milliseconds since the epoch
+	 * @param etag
+	 * 		The entity tag of the selected variant of the resource
+	 * @param vary
+	 * 		Whether the resource may be sent compressed (the "Vary" header of the full response is repeated)
+	 * 
+	 * @throws IOException
+	 */
+	private void writeNotModified(long lastModified, String etag, boolean vary) throws IOException {
+		writer.writeStatusLine(304);
+		writer.writeGeneralHeaders();
+		writer.writeHeader("Last-Modified", ResponseWriter.formatDate(lastModified));
+		writer.writeHeader("ETag", etag);
+		
+		if (vary) {
+			writer.writeVary();
+		}
+		
+		writer.endHeaders();
+	}
+	
+	/**
+	 * Writes the response to the connection's output stream.
+	 * 
+	 * @param mime
+	 * 		The MIME type of the response
+	 * @param statusCode
+	 * 		The status code of the response
+	 * @param message
+	 * 		The message of the response
+	 * @param lastModified
+	 * 		The date of the last modification of the resource composing the given message
+	 * @param HEAD
+	 * 		A boolean that indicates whether it is a HEAD request (thus omitting the response body)
+	 * 
+	 * @throws IOException
+	 */
+	private void writeResponse(String mime, int statusCode, byte[] message, Date lastModified, boolean HEAD) throws IOException {
+		if (message == null) {
+			message = ResponseWriter.getErrorPage(statusCode);
+		}
+		
+		writeHeaders(mime, statusCode, message.length, lastModified);
+		
+		if (!HEAD) {
+			response.write(message);
+		}
+	}
+	
+	/**
+	 * Writes an error response telling the client to retry the request later ("429 Too Many Requests" or "503 Service Unavailable"),
+	 * with a "Retry-After" header. The connection stays open.
+	 * 
+	 * @param statusCode
+	 * 		The status code of the response
+	 * @param retryAfter
+	 * 		The number of seconds after which the client may retry
+	 * @param HEAD
+	 * 		A boolean that indicates whether it is a HEAD request (thus omitting the response body)
+	 * 
+	 * @throws IOException
+	 */
+	private void writeRetryResponse(int statusCode, int retryAfter, boolean HEAD) throws IOException {
+		byte[] message = ResponseWriter.getErrorPage(statusCode);
+		
+		writer.writeStatusLine(statusCode);
+		writer.writeHeader("Retry-After", Integer.toString(retryAfter));
+		writer.writeGeneralHeaders();
+		writer.writeContentType("text/html");
+		writer.writeContentLength(message.length);
+		writer.endHeaders();
+		
+		if (!HEAD) {
+			response.write(message);
+		}
+	}
+	
+	/**
+	 * Writes the status line and the headers of a response to the connection's output stream.
+	 * 
+	 * @param mime
+	 * 		The MIME type of the response
+	 * @param statusCode
+	 * 		The status code of the response
+	 * @param contentLength
+	 * 		The length of the body of the response
+	 * @param lastModified
+	 * 		The date of the last modification of the resource composing the body (only sent with 304)
+	 * 
+	 * @throws IOException
+	 */
+	private void writeHeaders(String mime, int statusCode, long contentLength, Date lastModified) throws IOException {
+		writer.writeStatusLine(statusCode);
+		
+		if (statusCode == 304 && lastModified != null) {
+			writer.writeHeader("Last-Modified", ResponseWriter.formatDate(lastModified.getTime()));
+		}
+		
+		writer.writeGeneralHeaders();
+		writer.writeContentType(mime);
+		writer.writeContentLength(contentLength);
+		writer.endHeaders();
+	}
+	
+	/**
+	 * Closes the HTTP connection.
+	 * After this call, the connection cannot be used anymore.
+	 */
+	public void close() {
+		if (closed) {
+			return;
+		}
+		
+		closed = true;
+		
+		if (stream != null) {
+			stream.close();
+			stream = null;
+		}
+		
+		for (int i = 0; i < admittedCount; i++) {
+			limiter.ignore();
+		}
+		
+		admittedCount = 0;
+		discardUpload();
+		response.clear();
+		parser.park();
+		
+		try {
+			channel.close();
+		} catch (IOException e) {}
+		
+		server.connectionClosed(this);
+	}
+	
+	/**
+	 * Writes the connection's pending output to the socket. It is called once per batch of pipelined responses
+	 * rather than once per response, so the responses of a batch share their writes.
+	 * Transports that do the socket I/O themselves write the output when the socket is writable instead.
+	 * 
+	 * @throws IOException
+	 */
+	private void flush() throws IOException {
+		if (!blocking) {
+			return;
+		}
+		
+		while (!response.writeTo(channel)) {}
+		
+		outputWritten();
+	}
+	
+	/**
+	 * Returns whether the "Range" header of the given request applies to the current version of the resource:
+	 * if the request has an "If-Range" header, it has to contain the entity tag, the version tag or the exact time of the last modification.
+	 * 
+	 * @param request
+	 * 		The request containing the "Range" header
+	 * @param lastModified
+	 * 		The time of the last modification of the resource, in milliseconds since the epoch
+	 * @param size
+	 * 		The size of the resource in bytes
+	 * @param etag
+	 * 		The entity tag of the resource
+	 * 
+	 * @return
+	 * 		Whether the byte ranges have to be sent (instead of the whole resource)
+	 */
+	private static boolean isRangeValid(HttpRequest request, long lastModified, long size, String etag) {
+		String value = request.getHeader("if-range");
+		
+		if (value == null) {
+			return true;
+		}
+		
+		if (value.startsWith("\"")) {
+			return value.equals(etag) || value.equals(ETagCache.getVersionTag(lastModified, size));
+		}
+		
+		long time = ResponseWriter.parseDate(value);
+		return time >= 0 && time / 1000 == lastModified / 1000;
+	}
+	
+	/**
+	 * Returns the content encoding to compress the response to the given request with,
+	 * based on its "Accept-Encoding" header (gzip is preferred over deflate).
+	 * 
+	 * @param request
+	 * 		The request
+	 * 
+	 * @return
+	 * 		"gzip", "deflate" or null if the client accepts neither
+	 */
+	private static String getContentEncoding(HttpRequest request) {
+		String header = request.getHeader("accept-encoding");
+		
+		if (header == null) {
+			return null;
+		}
+		
+		boolean gzip = false;
+		boolean deflate = false;
+		
+		for (String element : header.split(",")) {
+			int semicolon = element.indexOf(';');
+			String coding = (semicolon < 0 ? element : element.substring(0, semicolon)).trim().toLowerCase();
+			boolean accepted = semicolon < 0 || !element.substring(semicolon + 1).trim().matches("[qQ]\\s*=\\s*0(\\.0*)?");
+			
+			if (coding.equals("gzip") || coding.equals("x-gzip") || coding.equals("*")) {
+				gzip |= accepted;
+			}
+			else if (coding.equals("deflate")) {
+				deflate = accepted;
+			}
+		}
+		
+		return gzip ? "gzip" : deflate ? "deflate" : null;
+	}
+	
+	/**
+	 * Moves the given temporary file to the given relative path, replacing the file at that path atomically:
+	 * concurrent readers see either the old or the new content, never a partially written file.
+	 * 
+	 * @param path
+	 * 		The relative path to write the file to
+	 * @param content
+	 * 		The temporary file containing the new content (in the same directory)
+	 * 
+	 * @throws IOException
+	 */
+	private void writeFile(String path, Path content) throws IOException {
+		ReentrantLock lock = server.getFileLock(path);
+		lock.lock();
+		
+		try {
+			setPermissions(content, Paths.get(path));
+			Files.move(content, Paths.get(path), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(content, Paths.get(path), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			lock.unlock();
+		}
+		
+		cache.invalidate(path);
+		etags.invalidate(path);
+	}
+	
+	/**
+	 * Gives the given temporary file the POSIX permissions of the file it is going to replace, or those of a newly
+	 * created file if there is none: temporary files are only accessible by their owner, and a move keeps the permissions.
+	 * 
+	 * @param content
+	 * 		The temporary file
+	 * @param target
+	 * 		The file it is going to replace
+	 * 
+	 * @throws IOException
+	 */
+	static void setPermissions(Path content, Path target) throws IOException {
+		if (!content.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			return;
+		}
+		
+		Set<PosixFilePermission> permissions;
+		
+		try {
+			permissions = Files.getPosixFilePermissions(target);
+		} catch (NoSuchFileException e) {
+			permissions = getDefaultPermissions();
+		}
+		
+		Files.setPosixFilePermissions(content, permissions);
+	}
+	
+	/**
+	 * Returns the POSIX permissions of the files created by the server, which depend on its umask.
+	 * They are read once from a file created (and deleted again) in the temporary directory.
+	 * 
+	 * @return
+	 * 		The permissions of a newly created file ("rw-r--r--" if they cannot be determined)
+	 */
+	private static synchronized Set<PosixFilePermission> getDefaultPermissions() {
+		if (defaultPermissions == null) {
+			try {
+				Path probe = Paths.get(System.getProperty("java.io.tmpdir"), ".permissions-" + System.nanoTime());
+				Files.createFile(probe);
+				
+				try {
+					defaultPermissions = Files.getPosixFilePermissions(probe);
+				} finally {
+					Files.deleteIfExists(probe);
+				}
+			} catch (IOException | UnsupportedOperationException e) {
+				defaultPermissions = PosixFilePermissions.fromString("rw-r--r--");
+			}
+		}
+		
+		return defaultPermissions;
+	}
+	
+	/**
+	 * Appends the content of the given temporary file to the file at the given relative path.
+	 * Only the appended bytes are written, so the cost does not depend on the size of the file.
+	 * 
+	 * @param path
+	 * 		The relative path of the file to append to
+	 * @param content
+	 * 		The temporary file containing the content to append
+	 * 
+	 * @return
+	 * 		The length of the file after appending
+	 * 
+	 * @throws IOException
+	 */
+	private long appendFile(String path, Path content) throws IOException {
+		ReentrantLock lock = server.getFileLock(path);
+		lock.lock();
+		
+		try (FileChannel output = FileChannel.open(Paths.get(path), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			transfer(content, output);
+			cache.invalidate(path);
+			etags.invalidate(path);
+			
+			return output.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Appends the content of the given file to the given channel.
+	 * 
+	 * @param file
+	 * 		The file to copy
+	 * @param output
+	 * 		The channel to write to
+	 * 
+	 * @throws IOException
+	 */
+	private static void transfer(Path file, FileChannel output) throws IOException {
+		try (FileChannel input = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = input.size();
+			long position = 0;
+			
+			while (position < size) {
+				long count = input.transferTo(position, size - position, output);
+				
+				if (count <= 0) {
+					throw new IOException("file truncated while copying");
+				}
+				
+				position += count;
+			}
+		}
+	}
+	
+	/**
+	 * A producer of the body of a streamed response (see {@link HttpConnection#writeStreamedResponse}),
+	 * called until the body is complete.
+	 */
+	public interface BodyProducer extends Closeable {
+		
+		/**
+		 * Writes the next part of the body to the given stream, closing the stream after the last part.
+		 * 
+		 * @param body
+		 * 		The stream sending the body in chunks
+		 * 
+		 * @return
+		 * 		Whether the body is complete
+		 * 
+		 * @throws IOException
+		 */
+		boolean produce(ChunkedOutputStream body) throws IOException;
+		
+		/**
+		 * Releases the resources of the producer if the body is abandoned (e.g. because the connection is closed).
+		 */
+		@Override
+		void close();
+	}
+}
@@ -1,5 +1,7 @@
 package main;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.HashMap;
 
 /**
@@ -9,67 +11,70 @@ import java.util.HashMap;
  *  <li>An HTTP method (e.g. "GET")</li>
  *  <li>A resource path (e.g. "/index.html")</li>
  *  <li>An HTTP version (e.g. "HTTP/1.1")</li>
- *  <li>An associative array containing the headers (key: header field, value: header value)</li>
- *  <li>An optional body (may be null if absent)</li>
+ *  <li>The headers (field names are case-insensitive)</li>
+ *  <li>An optional body, stored in a temporary file (may be null if absent)</li>
  * </ul>
  * <br>
- * 
+ *
+ * An instance is reused for all the requests of a connection and is filled by a {@link RequestParser}.
+ * The request line and the headers are views of the parser's buffer: they are not copied into strings
+ * unless asked for, and they are only valid until the next request is read.
+ *
  * @author Bauwen Demol (r0583318)
  * @author Jorik Jooken (r0588270)
  */
 public class HttpRequest {
-	
-	private String requestLine;
+
+	public static final String GET = "GET";
+	public static final String HEAD = "HEAD";
+	public static final String POST = "POST";
+	public static final String PUT = "PUT";
+
+	public static final String HTTP_1_0 = "HTTP/1.0";
+	public static final String HTTP_1_1 = "HTTP/1.1";
+
+	static final String[] METHODS = { GET, HEAD, POST, PUT };
+	static final String[] VERSIONS = { HTTP_1_1, HTTP_1_0 };
+
+	static final String[] HEADER_NAMES = {
+		"host", "connection", "content-length", "content-type", "if-modified-since",
+		"user-agent", "accept", "accept-encoding", "accept-language", "cache-control"
+	};
+
+	private byte[] buffer;
+	private int requestLineStart;
+	private int requestLineEnd;
 	private String method;
 	private String path;
 	private String version;
-	private HashMap<String, String> headers;
-	private String body;
-	
-	/**
-	 * Constructs an HttpRequest from the given components.
-	 * 
-	 * <b>Note:</b> it's up to the creator of this constructor to make sure that the method, path and version given
-	 * are the same as in the given request line!
-	 * 
-	 * @param requestLine
-	 * 		The request line (the first line of the request)
-	 * @param method
-	 * 		The HTTP method of the request
-	 * @param path
-	 * 		The relative resource path
-	 * @param version
-	 * 		The HTTP version
-	 * @param headers
-	 * 		The map containing the headers
-	 * @param body
-	 * 		The complete body of the request. May be null,
-	 * 		indication it has no body (e.g. when HEAD or GET request is sent)
-	 */
-	public HttpRequest(String requestLine, String method, String path, String version, HashMap<String, String> headers, String body) {
-		this.requestLine = requestLine;
-		this.method = method;
-		this.path = path;
-		this.version = version;
-		this.headers = new HashMap<>(headers);
-		this.body = body;
-	}
+
+	// the (start, end) offsets of the name and the value of every header
+
+	private int[] headers = new int[4 * 16];
+	private int headerCount;
+
+	private Path body;
+
+	/**
+	 * Constructs an empty HttpRequest, to be filled by a {@link RequestParser}.
+	 */
+	public HttpRequest() {}
 
 	/**
 	 * Returns the request line.
-	 * 
+	 *
 	 * @return
 	 * 		The request line
 	 */
 	public String getRequestLine() {
-		return requestLine;
+		return new String(buffer, requestLineStart, requestLineEnd - requestLineStart, StandardCharsets.ISO_8859_1);
 	}
 
 	/**
 	 * Returns the HTTP method of the request.
-	 * 
+	 *
 	 * @return
-	 * 		The HTTP method of the request
+	 * 		The HTTP method of the request (one of the constants for the common methods)
 	 */
 	public String getMethod() {
 		return method;
@@ -77,7 +82,7 @@ public class HttpRequest {
 
 	/**
 	 * Returns the resource path of the request, relative to the host.
-	 * 
+	 *
 	 * @return
 	 * 		The relative resource path of the request
 	 */
@@ -87,41 +92,273 @@ public class HttpRequest {
 
 	/**
 	 * Returns the HTTP version of the request.
-	 * 
+	 *
 	 * @return
-	 * 		The HTTP version of the request
+	 * 		The HTTP version of the request (one of the constants for the common versions)
 	 */
 	public String getVersion() {
 		return version;
 	}
 
 	/**
-	 * Returns the map containing the headers of the request.
-	 * 
+	 * Returns whether the request has a header with the given field name.
+	 *
+	 * @param name
+	 * 		The lower-case field name of the header
+	 *
 	 * @return
-	 * 		A map containing the headers of the request
+	 * 		Whether the header is present
+	 */
+	public boolean hasHeader(String name) {
+		return indexOfHeader(name) >= 0;
+	}
+
+	/**
+	 * Returns the value of the header with the given field name.
+	 *
+	 * @param name
+	 * 		The lower-case field name of the header
+	 *
+	 * @return
+	 * 		The value of the header or null if absent
+	 */
+	public String getHeader(String name) {
+		int i = indexOfHeader(name);
+
+		if (i < 0) {
+			return null;
+		}
+
+		return new String(buffer, headers[i + 2], headers[i + 3] - headers[i + 2], StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Returns whether the value of the header with the given field name equals the given value, ignoring case.
+	 *
+	 * @param name
+	 * 		The lower-case field name of the header
+	 * @param value
+	 * 		The value to compare with
+	 *
+	 * @return
+	 * 		Whether the header is present and has the given value
+	 */
+	public boolean isHeader(String name, String value) {
+		int i = indexOfHeader(name);
+		return i >= 0 && equals(buffer, headers[i + 2], headers[i + 3], value, true);
+	}
+
+	/**
+	 * Returns the value of the header with the given field name as a non-negative number.
+	 *
+	 * @param name
+	 * 		The lower-case field name of the header
+	 *
+	 * @return
+	 * 		The value of the header or -1 if absent
+	 *
+	 * @throws IllegalArgumentException
+	 * 		If the value is not a non-negative number
+	 */
+	public long getNumericHeader(String name) throws IllegalArgumentException {
+		int i = indexOfHeader(name);
+
+		if (i < 0) {
+			return -1;
+		}
+
+		long value = 0;
+
+		for (int j = headers[i + 2]; j < headers[i + 3]; j++) {
+			int digit = buffer[j] - '0';
+
+			if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+				throw new IllegalArgumentException("invalid " + name);
+			}
+
+			value = 10 * value + digit;
+		}
+
+		if (headers[i + 2] == headers[i + 3]) {
+			throw new IllegalArgumentException("invalid " + name);
+		}
+
+		return value;
+	}
+
+	/**
+	 * Returns a map containing the headers of the request. The map is built on every call,
+	 * so the other accessors should be preferred on the hot path.
+	 *
+	 * @return
+	 * 		A map containing the headers of the request (key: lower-case field name, value: header value)
 	 */
 	public HashMap<String, String> getHeaders() {
-		return new HashMap<>(headers);
+		HashMap<String, String> map = new HashMap<>();
+
+		for (int i = 0; i < 4 * headerCount; i += 4) {
+			String name = null;
+
+			for (String constant : HEADER_NAMES) {
+				if (equals(buffer, headers[i], headers[i + 1], constant, true)) {
+					name = constant;
+					break;
+				}
+			}
+
+			if (name == null) {
+				name = new String(buffer, headers[i], headers[i + 1] - headers[i], StandardCharsets.ISO_8859_1).toLowerCase();
+			}
+
+			map.put(name, new String(buffer, headers[i + 2], headers[i + 3] - headers[i + 2], StandardCharsets.ISO_8859_1));
+		}
+
+		return map;
 	}
-	
+
 	/**
 	 * Returns whether the request has a body.
-	 * 
+	 *
 	 * @return
 	 * 		Whether the request has a body
 	 */
 	public boolean hasBody() {
 		return body != null;
 	}
-	
+
 	/**
-	 * Returns the body of the request.
-	 * 
+	 * Returns the temporary file containing the raw bytes of the body of the request.
+	 * The file is deleted once the request has been handled.
+	 *
 	 * @return
-	 * 		The body of the request. May be null if the request has no body at all
+	 * 		The file containing the body of the request. May be null if the request has no body at all
 	 */
-	public String getBody() {
+	public Path getBody() {
 		return body;
 	}
+
+	/**
+	 * Clears the request, so it can be filled with the request in the given buffer.
+	 *
+	 * @param buffer
+	 * 		The buffer the request refers to
+	 */
+	void reset(byte[] buffer) {
+		this.buffer = buffer;
+		this.method = null;
+		this.path = null;
+		this.version = null;
+		this.headerCount = 0;
+		this.body = null;
+	}
+
+	/**
+	 * Sets the range of the request line in the buffer.
+	 */
+	void setRequestLine(int start, int end) {
+		requestLineStart = start;
+		requestLineEnd = end;
+	}
+
+	/**
+	 * Sets the HTTP method of the request.
+	 */
+	void setMethod(String method) {
+		this.method = method;
+	}
+
+	/**
+	 * Sets the resource path of the request.
+	 */
+	void setPath(String path) {
+		this.path = path;
+	}
+
+	/**
+	 * Sets the HTTP version of the request.
+	 */
+	void setVersion(String version) {
+		this.version = version;
+	}
+
+	/**
+	 * Adds a header given by the ranges of its field name and its value in the buffer.
+	 */
+	void addHeader(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+		if (4 * headerCount == headers.length) {
+			int[] grown = new int[2 * headers.length];
+			System.arraycopy(headers, 0, grown, 0, headers.length);
+			headers = grown;
+		}
+
+		int i = 4 * headerCount++;
+
+		headers[i] = nameStart;
+		headers[i + 1] = nameEnd;
+		headers[i + 2] = valueStart;
+		headers[i + 3] = valueEnd;
+	}
+
+	/**
+	 * Sets the body of the request.
+	 */
+	void setBody(Path body) {
+		this.body = body;
+	}
+
+	/**
+	 * Returns the index of the first header with the given field name in the array of offsets.
+	 *
+	 * @param name
+	 * 		The lower-case field name of the header
+	 *
+	 * @return
+	 * 		The index of the header or -1 if absent
+	 */
+	private int indexOfHeader(String name) {
+		for (int i = 0; i < 4 * headerCount; i += 4) {
+			if (equals(buffer, headers[i], headers[i + 1], name, true)) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns whether the given range of bytes equals the given (ASCII) string.
+	 *
+	 * @param buffer
+	 * 		The buffer containing the bytes
+	 * @param start
+	 * 		The index of the first byte
+	 * @param end
+	 * 		The index after the last byte
+	 * @param string
+	 * 		The string to compare with (in lower case if case is ignored)
+	 * @param ignoreCase
+	 * 		Whether to ignore the case of the bytes
+	 *
+	 * @return
+	 * 		Whether the bytes equal the string
+	 */
+	static boolean equals(byte[] buffer, int start, int end, String string, boolean ignoreCase) {
+		if (end - start != string.length()) {
+			return false;
+		}
+
+		for (int i = 0; i < string.length(); i++) {
+			int b = buffer[start + i];
+
+			if (ignoreCase && b >= 'A' && b <= 'Z') {
+				b += 'a' - 'A';
+			}
+
+			if (b != string.charAt(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
 }
@@ -0,0 +1,640 @@
+package main;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Represents the HTTP server. It holds the configuration and the state shared by all connections
+ * and listens for incoming connections using the configured transport:<br><br>
+ * <ul>
+ *  <li>"blocking": every connection is handled by its own thread (default)</li>
+ *  <li>"nio": all connections are multiplexed over a number of selector event loops (one per core)</li>
+ * </ul>
+ * <br>
+ *
+ * Both accept their connections with one or more {@link Acceptor}s.
+ * 
+ * The threads of the blocking transport are either:<br><br>
+ * <ul>
+ *  <li>"platform": a new platform thread per connection (default)</li>
+ *  <li>"pooled": a thread of a fixed-size pool. Connections wait for a thread in a bounded queue; when it is full,
+ *      they are rejected right away with a pre-encoded "503 Service Unavailable", so the connections that are
+ *      admitted are still served in time when the load spikes</li>
+ *  <li>"virtual": a new virtual thread per connection (requires Java 21 or later)</li>
+ * </ul>
+ * <br>
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class HttpServer {
+
+	private static final int FILE_LOCKS = 64;
+	private static final int ETAG_CACHE_SIZE = 4096;
+	private static final int BUFFER_SIZE = 8192;
+	private static final int POOLED_BUFFERS = 1024;
+
+	private final ServerConfig config;
+	private final ContentCache contentCache;
+	private final ETagCache etagCache = new ETagCache(ETAG_CACHE_SIZE);
+	private final FileIndex fileIndex;
+	private final Snapshot snapshot;
+	private final AccessLog accessLog;
+	private final Metrics metrics = new Metrics(this);
+	private final String statsPath;
+	private final ReentrantLock[] fileLocks = new ReentrantLock[FILE_LOCKS];
+	private final int chunkSize;
+
+	private final BufferPool bufferPool = new BufferPool(BUFFER_SIZE, POOLED_BUFFERS);
+	private final long idleTimeout;
+	private final int maxRequests;
+	private final Semaphore connectionPermits;
+	private final Set<HttpConnection> openConnections = ConcurrentHashMap.newKeySet();
+	private final Set<String> sidecarBuilds = ConcurrentHashMap.newKeySet();
+	private final List<ThreadPoolExecutor> workerPools = new ArrayList<>();
+	private final byte[] overloadResponse;
+	private final int retryAfter;
+	private final ConcurrencyLimiter limiter;
+	private final RateLimiter rateLimiter;
+
+	/**
+	 * Constructs an HttpServer from the given configuration.
+	 *
+	 * @param config
+	 * 		The configuration of the server
+	 *
+	 * @throws IllegalArgumentException
+	 * 		If an option has an invalid value
+	 */
+	public HttpServer(ServerConfig config) throws IllegalArgumentException {
+		this.config = config;
+		this.contentCache = new ContentCache(
+			config.getLongOption("cache-size", 64L << 20),
+			config.getLongOption("cache-entry-size", 1L << 20),
+			config.getLongOption("cache-direct-size", 0));
+
+		// files modified by other programs are evicted from the caches as soon as the index sees them
+
+		this.snapshot = openSnapshot();
+
+		// with a snapshot, the document root is only used for the files it does not contain, so it is not indexed by default
+
+		this.fileIndex = new FileIndex(config.getPath(), config.getBooleanOption("file-index", snapshot == null), path -> {
+			contentCache.invalidate(path);
+			etagCache.invalidate(path);
+		});
+
+		for (int i = 0; i < fileLocks.length; i++) {
+			fileLocks[i] = new ReentrantLock();
+		}
+
+		this.chunkSize = config.getIntOption("chunk-size", 8192);
+
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("chunk-size must be positive.");
+		}
+
+		this.idleTimeout = 1000L * config.getIntOption("idle-timeout", 60);
+		this.maxRequests = config.getIntOption("max-requests", 1000);
+
+		int maxConnections = config.getIntOption("max-connections", 10000);
+
+		if (maxConnections <= 0) {
+			throw new IllegalArgumentException("max-connections must be positive.");
+		}
+
+		this.connectionPermits = new Semaphore(maxConnections);
+		this.retryAfter = config.getIntOption("retry-after", 1);
+		this.overloadResponse = ResponseWriter.encodeServiceUnavailable(retryAfter);
+		this.limiter = createLimiter();
+		this.rateLimiter = createRateLimiter();
+		this.accessLog = createAccessLog();
+
+		String statsPath = config.getOption("stats-path", "/_stats");
+		this.statsPath = statsPath.isEmpty() ? null : statsPath;
+	}
+
+	/**
+	 * Returns the configuration of the server.
+	 *
+	 * @return
+	 * 		The configuration of the server
+	 */
+	public ServerConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * Returns the cache of static resources shared by all connections.
+	 *
+	 * @return
+	 * 		The content cache
+	 */
+	public ContentCache getContentCache() {
+		return contentCache;
+	}
+
+	/**
+	 * Returns the cache of entity tags shared by all connections.
+	 *
+	 * @return
+	 * 		The entity tag cache
+	 */
+	public ETagCache getETagCache() {
+		return etagCache;
+	}
+
+	/**
+	 * Returns the index of the files of the document root shared by all connections.
+	 *
+	 * @return
+	 * 		The file index
+	 */
+	public FileIndex getFileIndex() {
+		return fileIndex;
+	}
+
+	/**
+	 * Returns the snapshot of the document root the GET and HEAD requests are served from.
+	 *
+	 * @return
+	 * 		The snapshot or null if the server does not use one
+	 */
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Returns the access log of the server.
+	 *
+	 * @return
+	 * 		The access log or null if requests are not logged
+	 */
+	public AccessLog getAccessLog() {
+		return accessLog;
+	}
+
+	/**
+	 * Returns the metrics of the server.
+	 *
+	 * @return
+	 * 		The metrics
+	 */
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Returns the reserved path at which the metrics are served ("?format=prometheus" selects the Prometheus format).
+	 *
+	 * @return
+	 * 		The path of the metrics (e.g. "/_stats") or null if they are not served
+	 */
+	public String getStatsPath() {
+		return statsPath;
+	}
+
+	/**
+	 * Returns the size in bytes of the chunks of responses with "Transfer-Encoding: chunked".
+	 *
+	 * @return
+	 * 		The chunk size
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Returns the pool of read and write buffers shared by all connections.
+	 *
+	 * @return
+	 * 		The buffer pool
+	 */
+	public BufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	/**
+	 * Returns the time after which a connection waiting for a request is closed.
+	 *
+	 * @return
+	 * 		The idle timeout in milliseconds (0 if idle connections are kept open)
+	 */
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	/**
+	 * Returns the maximum number of requests handled per connection, after which the connection is closed.
+	 *
+	 * @return
+	 * 		The maximum number of requests per connection (0 if unlimited)
+	 */
+	public int getMaxRequests() {
+		return maxRequests;
+	}
+
+	/**
+	 * Returns the number of seconds after which clients rejected because the server is overloaded may retry.
+	 *
+	 * @return
+	 * 		The number of seconds sent in the "Retry-After" header
+	 */
+	public int getRetryAfter() {
+		return retryAfter;
+	}
+
+	/**
+	 * Returns the adaptive limit on the number of requests handled at the same time.
+	 *
+	 * @return
+	 * 		The limiter or null if the number of requests is not limited
+	 */
+	public ConcurrencyLimiter getConcurrencyLimiter() {
+		return limiter;
+	}
+
+	/**
+	 * Returns the limit on the rate at which every client may send requests.
+	 *
+	 * @return
+	 * 		The rate limiter or null if the rate is not limited
+	 */
+	public RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * Returns the number of connections waiting for a thread of the worker pools.
+	 *
+	 * @return
+	 * 		The number of queued connections (0 unless the threads are pooled)
+	 */
+	public int getQueueDepth() {
+		int depth = 0;
+
+		for (ThreadPoolExecutor pool : workerPools) {
+			depth += pool.getQueue().size();
+		}
+
+		return depth;
+	}
+
+	/**
+	 * Waits until the number of open connections is below the maximum, and counts a new connection.
+	 * Connections that are not accepted yet wait in the backlog of the listening socket.
+	 */
+	public void acquireConnection() {
+		connectionPermits.acquireUninterruptibly();
+	}
+
+	/**
+	 * Stops counting a connection counted by {@link #acquireConnection()}.
+	 */
+	public void releaseConnection() {
+		connectionPermits.release();
+	}
+
+	/**
+	 * Called when the given connection is opened.
+	 *
+	 * @param connection
+	 * 		The new connection
+	 */
+	public void connectionOpened(HttpConnection connection) {
+		metrics.connectionOpened();
+	}
+
+	/**
+	 * Called when the given connection is closed.
+	 *
+	 * @param connection
+	 * 		The closed connection
+	 */
+	public void connectionClosed(HttpConnection connection) {
+		openConnections.remove(connection);
+		metrics.connectionClosed();
+		releaseConnection();
+	}
+
+	/**
+	 * Returns the lock guarding modifications of the file at the given path. The locks are striped:
+	 * a fixed number of locks is shared by all paths, so different paths may share a lock.
+	 *
+	 * @param path
+	 * 		The path of the file
+	 *
+	 * @return
+	 * 		The lock of the file
+	 */
+	public ReentrantLock getFileLock(String path) {
+		int hash = path.hashCode();
+		return fileLocks[(hash ^ (hash >>> 16)) & (FILE_LOCKS - 1)];
+	}
+
+	/**
+	 * Claims the building of the gzip sidecar of the file at the given path (see {@link CompressedFileBody}),
+	 * so the file is not compressed by several requests at once.
+	 *
+	 * @param path
+	 * 		The resolved path of the file
+	 *
+	 * @return
+	 * 		Whether the claim succeeded (false if another request is building the sidecar)
+	 */
+	public boolean startSidecar(String path) {
+		return sidecarBuilds.add(path);
+	}
+
+	/**
+	 * Returns whether a request is building the gzip sidecar of the file at the given path.
+	 *
+	 * @param path
+	 * 		The resolved path of the file
+	 *
+	 * @return
+	 * 		Whether the building of the sidecar has been claimed
+	 */
+	public boolean isBuildingSidecar(String path) {
+		return sidecarBuilds.contains(path);
+	}
+
+	/**
+	 * Releases a claim made with {@link #startSidecar(String)}.
+	 *
+	 * @param path
+	 * 		The resolved path of the file
+	 */
+	public void endSidecar(String path) {
+		sidecarBuilds.remove(path);
+	}
+
+	/**
+	 * Starts listening for incoming connections. This call does not return unless an error occurs.
+	 *
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 * 		If the configured transport is unknown
+	 */
+	public void start() throws IOException, IllegalArgumentException {
+		String transport = config.getOption("transport", "blocking");
+
+		switch (transport) {
+		case "blocking":
+			serveBlocking();
+			break;
+
+		case "nio":
+			int loops = config.getIntOption("event-loops", Runtime.getRuntime().availableProcessors());
+			new NioServer(this, loops).serve();
+			break;
+
+		default:
+			throw new IllegalArgumentException("invalid transport '" + transport + "' (expected 'blocking' or 'nio').");
+		}
+	}
+
+	/**
+	 * Listens to incoming socket connections and lets a separate thread handle them.
+	 * With several acceptors, every worker group has an executor of its own.
+	 *
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 * 		If the configured threads are unknown or unavailable
+	 */
+	private void serveBlocking() throws IOException, IllegalArgumentException {
+		String threads = config.getOption("threads", "platform");
+		int acceptors = Math.max(1, config.getIntOption("acceptors", 1));
+		Acceptor.WorkerGroup[] groups = new Acceptor.WorkerGroup[acceptors];
+
+		for (int i = 0; i < groups.length; i++) {
+			Executor executor = createExecutor(threads, groups.length);
+
+			groups[i] = channel -> {
+				HttpConnection connection = new HttpConnection(channel, this);
+
+				openConnections.add(connection);
+
+				try {
+					executor.execute(connection);
+				} catch (RejectedExecutionException e) {
+					metrics.connectionRejected();
+					connection.reject(overloadResponse, 503);
+				}
+			};
+		}
+
+		// (blocking) channels are used rather than plain sockets, so files can be transferred to them directly
+
+		ServerSocketChannel[] serverChannels = Acceptor.listen(config.getPort(), acceptors, 0);
+		System.out.println("Listening on port " + config.getPort() + " (blocking, " + threads + " threads"
+			+ Acceptor.describe(serverChannels.length, groups.length) + ")...");
+
+		if (idleTimeout > 0) {
+			Thread reaper = new Thread(this::reapIdleConnections, "idle-reaper");
+			reaper.setDaemon(true);
+			reaper.start();
+		}
+
+		Acceptor.serve(this, serverChannels, groups);
+	}
+
+	/**
+	 * Closes the connections of the blocking transport that have been waiting for a request for too long.
+	 * Runs on a thread of its own, checking the connections every second.
+	 */
+	private void reapIdleConnections() {
+		while (true) {
+			try {
+				Thread.sleep(1000);
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			long now = System.currentTimeMillis();
+
+			for (HttpConnection connection : openConnections) {
+				if (connection.isIdle(now, idleTimeout)) {
+					connection.abort();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Opens the snapshot configured by the "snapshot" option.
+	 *
+	 * @return
+	 * 		The snapshot or null if the server does not use one (the default)
+	 *
+	 * @throws IllegalArgumentException
+	 * 		If the snapshot cannot be opened
+	 */
+	private Snapshot openSnapshot() throws IllegalArgumentException {
+		String path = config.getOption("snapshot", null);
+
+		if (path == null) {
+			return null;
+		}
+
+		try {
+			return new Snapshot(path);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("couldn't open snapshot '" + path + "' (" + e.getMessage() + ").");
+		}
+	}
+
+	/**
+	 * Creates the access log configured by the "access-log" options.
+	 *
+	 * @return
+	 * 		The access log or null if requests are not logged (the default)
+	 *
+	 * @throws IllegalArgumentException
+	 * 		If an option has an invalid value or the log file cannot be opened
+	 */
+	private AccessLog createAccessLog() throws IllegalArgumentException {
+		String destination = config.getOption("access-log", null);
+
+		if (destination == null) {
+			return null;
+		}
+
+		String format = config.getOption("access-log-format", "combined");
+
+		if (!format.equals("common") && !format.equals("combined")) {
+			throw new IllegalArgumentException("invalid access-log-format '" + format + "' (expected 'common' or 'combined').");
+		}
+
+		int bodySize = config.getIntOption("access-log-body", 0);
+		int maxFiles = config.getIntOption("access-log-files", 5);
+
+		if (bodySize < 0 || maxFiles < 0) {
+			throw new IllegalArgumentException("access-log-body and access-log-files must not be negative.");
+		}
+
+		try {
+			return new AccessLog(destination, format.equals("combined"), bodySize, config.getLongOption("access-log-size", 10L << 20), maxFiles);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("couldn't open access log '" + destination + "' (" + e.getMessage() + ").");
+		}
+	}
+
+	/**
+	 * Creates the concurrency limiter configured by the "concurrency-limit" options.
+	 *
+	 * @return
+	 * 		The limiter or null if the number of requests is not limited (the default)
+	 *
+	 * @throws IllegalArgumentException
+	 * 		If an option has an invalid value
+	 */
+	private ConcurrencyLimiter createLimiter() throws IllegalArgumentException {
+		String mode = config.getOption("concurrency-limit", "off");
+
+		if (mode.equals("off")) {
+			return null;
+		}
+
+		if (!mode.equals("adaptive")) {
+			throw new IllegalArgumentException("invalid concurrency-limit '" + mode + "' (expected 'adaptive' or 'off').");
+		}
+
+		int minLimit = config.getIntOption("concurrency-limit-min", 1);
+		int maxLimit = config.getIntOption("concurrency-limit-max", 1000);
+
+		return new ConcurrencyLimiter(minLimit, maxLimit);
+	}
+
+	/**
+	 * Creates the rate limiter configured by the "rate-limit" options.
+	 *
+	 * @return
+	 * 		The rate limiter or null if the rate is not limited (the default)
+	 *
+	 * @throws IllegalArgumentException
+	 * 		If an option has an invalid value
+	 */
+	private RateLimiter createRateLimiter() throws IllegalArgumentException {
+		List<RateLimiter.Rule> rules = new ArrayList<>();
+		String rate = config.getOption("rate-limit", null);
+		String burst = config.getOption("rate-limit-burst", null);
+
+		// the limit of all requests of a client is simply the rule of the prefix "/"
+
+		if (rate != null) {
+			rules.add(RateLimiter.Rule.parse("/:" + rate + (burst != null ? ":" + burst : "")));
+		}
+
+		String paths = config.getOption("rate-limit-paths", "");
+
+		for (String rule : paths.split(",")) {
+			if (!rule.isEmpty()) {
+				rules.add(RateLimiter.Rule.parse(rule));
+			}
+		}
+
+		return rules.isEmpty() ? null : new RateLimiter(rules);
+	}
+
+	/**
+	 * Creates the executor running the connections of the blocking transport.
+	 *
+	 * @param threads
+	 * 		The kind of threads to use ("platform", "pooled" or "virtual")
+	 * @param groups
+	 * 		The number of worker groups sharing the configured pool size
+	 *
+	 * @return
+	 * 		An executor running every task on a thread of the given kind
+	 *
+	 * @throws IllegalArgumentException
+	 * 		If the kind of threads is unknown or unavailable
+	 */
+	private Executor createExecutor(String threads, int groups) throws IllegalArgumentException {
+		switch (threads) {
+		case "platform":
+			return task -> new Thread(task).start();
+
+		case "pooled":
+			int size = Math.max(1, config.getIntOption("pool-size", 256) / groups);
+			int queueSize = config.getIntOption("queue-size", 1024) / groups;
+
+			// without a queue, a connection is only accepted if a thread is waiting for it
+
+			BlockingQueue<Runnable> queue = (queueSize > 0) ? new ArrayBlockingQueue<>(queueSize) : new SynchronousQueue<>();
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS, queue);
+
+			workerPools.add(pool);
+			return pool;
+
+		case "virtual":
+			try {
+				// looked up reflectively, so the server still builds and runs on Java 8
+
+				Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				return (Executor) method.invoke(null);
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalArgumentException("virtual threads require Java 21 or later.");
+			}
+
+		default:
+			throw new IllegalArgumentException("invalid threads '" + threads + "' (expected 'platform', 'pooled' or 'virtual').");
+		}
+	}
+}
@@ -1,60 +1,78 @@
-package main;
-
-import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-
-/**
- * The server's program class containing the main function.
- * 
- * @author Bauwen Demol (r0583318)
- * @author Jorik Jooken (r0588270)
- */
-public class Main {
-	
-	/**
-	 * The main function of the server program.
-	 * 
-	 * Expects at least 1 command-line argument (the local host path representing the web server) and
-	 * optionally a second argument indicating the port number to use.
-	 * 
-	 * Listens to incoming socket connections and lets a separate thread handle them.
-	 * 
-	 * @param args
-	 * 		The command-line arguments
-	 * 
-	 * @throws IOException
-	 */
-	public static void main(String[] args) throws IOException {
-		
-		// get the command line argument
-		
-		if (args.length < 1) {
-			System.out.println("Error: expected 1 argument containing directory in 'files/'.");
-			return;
-		}
-		
-		String path = args[0];
-		
-		int port = 8000;
-		
-		if (args.length > 1) {
-			port = Integer.parseInt(args[1]);
-		}
-		
-		
-		// setup the server and listen for incoming connections
-		
-		ServerSocket serverSocket = new ServerSocket(port);
-		System.out.println("Listening on port " + port + "...");
-		
-		try {
-			while (true) {
-				Socket socket = serverSocket.accept();
-				new Thread(new HttpConnection(socket, path)).start();
-			}
-		} catch (IOException e) {
-			serverSocket.close();
-		}
-	}
-}
+package main;
+
+import java.io.IOException;
+
+/**
+ * The server's program class containing the main function.
+ * 
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class Main {
+	
+	/**
+	 * The main function of the server program.
+	 * 
+	 * Expects at least 1 command-line argument (the local host path representing the web server) and
+	 * optionally a second argument indicating the port number to use.
+	 * 
+	 * Additional options can be given as "--name=value":<br>
+	 * <ul>
+	 *  <li>--transport=blocking|nio: the transport handling the connections (default blocking)</li>
+	 *  <li>--event-loops=N: the number of event loops of the nio transport (default one per core)</li>
+	 *  <li>--threads=platform|pooled|virtual: the threads of the blocking transport (default platform)</li>
+	 *  <li>--pool-size=N: the number of threads if pooled (default 256)</li>
+	 *  <li>--queue-size=N: the number of connections waiting for a thread if pooled, others get "503 Service Unavailable" (default 1024)</li>
+	 *  <li>--retry-after=S: the seconds after which clients rejected with 503 may retry (default 1)</li>
+	 *  <li>--concurrency-limit=adaptive|off: whether the number of requests handled at the same time adapts to their latency, others get "503 Service Unavailable" (default off)</li>
+	 *  <li>--concurrency-limit-min=N: the smallest adaptive limit (default 1)</li>
+	 *  <li>--concurrency-limit-max=N: the largest adaptive limit (default 1000)</li>
+	 *  <li>--rate-limit=R: the number of requests per second every client may send, others get "429 Too Many Requests" (default no limit)</li>
+	 *  <li>--rate-limit-burst=N: the number of requests a client may send at once (default the rate)</li>
+	 *  <li>--rate-limit-paths=PREFIX:R[:N],...: the rates (and bursts) of the requests of every client to the given path prefixes (default none)</li>
+	 *  <li>--acceptors=N: the number of threads accepting connections, each with a socket of its own if SO_REUSEPORT is supported (default 1)</li>
+	 *  <li>--cache-size=N: the byte budget of the in-memory content cache, 0 to disable it (default 64 MB)</li>
+	 *  <li>--cache-entry-size=N: the size in bytes of the largest file to cache (default 1 MB)</li>
+	 *  <li>--cache-direct-size=N: the size in bytes from which cached files are kept off-heap (default 0, never)</li>
+	 *  <li>--file-index=true|false: whether the metadata of the files is kept in memory and watched for changes (default true without snapshot)</li>
+	 *  <li>--snapshot=FILE: the snapshot of the directory to serve GET and HEAD requests from, built with main.Snapshot (default none)</li>
+	 *  <li>--chunk-size=N: the size in bytes of the chunks of streamed responses (default 8192)</li>
+	 *  <li>--idle-timeout=S: the seconds after which a connection waiting for a request is closed, 0 to never close it (default 60)</li>
+	 *  <li>--max-requests=N: the number of requests after which a connection is closed, 0 for no limit (default 1000)</li>
+	 *  <li>--max-connections=N: the maximum number of open connections, others wait to be accepted (default 10000)</li>
+	 *  <li>--access-log=FILE: the file to log the requests to, "-" for standard output (default none)</li>
+	 *  <li>--access-log-format=common|combined: the format of the access log (default combined)</li>
+	 *  <li>--access-log-body=N: the number of bytes of PUT and POST bodies to log (default 0)</li>
+	 *  <li>--access-log-size=N: the size in bytes from which the access log is rotated, 0 never to rotate it (default 10 MB)</li>
+	 *  <li>--access-log-files=N: the number of rotated access log files to keep (default 5)</li>
+	 *  <li>--stats-path=PATH: the path at which the metrics are served, empty not to serve them (default /_stats)</li>
+	 * </ul>
+	 * 
+	 * @param args
+	 * 		The command-line arguments
+	 * 
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		
+		// get the command line arguments
+		
+		ServerConfig config;
+		
+		try {
+			config = new ServerConfig(args);
+		} catch (IllegalArgumentException e) {
+			System.out.println("Error: " + e.getMessage());
+			return;
+		}
+		
+		
+		// setup the server and listen for incoming connections
+		
+		try {
+			new HttpServer(config).start();
+		} catch (IllegalArgumentException e) {
+			System.out.println("Error: " + e.getMessage());
+		}
+	}
+}
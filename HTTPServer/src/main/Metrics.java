@@ -0,0 +1,346 @@
+package main;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Represents the instrumentation of the server: counters of the requests per method and of the responses
+ * per status code, histograms of the time it takes to parse a request, the time it takes to handle it and
+ * the number of bytes of the response, and a gauge of the open connections.
+ *
+ * Recording is lock-free (all counters are {@link LongAdder}s), so it can be done on every request.
+ * The metrics are served by the server at a reserved path (see {@link HttpServer#getStatsPath()}), together
+ * with the counters of the content cache, the buffer pool, the file index, the limiters and the access log,
+ * as JSON or in the Prometheus text exposition format.
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class Metrics {
+
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	private final HttpServer server;
+	private final long startTime = System.currentTimeMillis();
+
+	// the counters of the requests per method (the last one counting the other methods) and of the responses per status code
+
+	private final LongAdder[] methods = new LongAdder[HttpRequest.METHODS.length + 1];
+	private final LongAdder[] statusCodes = new LongAdder[600];
+
+	private final LongAdder openConnections = new LongAdder();
+	private final LongAdder connections = new LongAdder();
+	private final LongAdder rejectedConnections = new LongAdder();
+
+	private final Histogram parseTime = new Histogram();
+	private final Histogram handlerTime = new Histogram();
+	private final Histogram responseSize = new Histogram();
+
+	/**
+	 * Constructs the Metrics of the given server.
+	 *
+	 * @param server
+	 * 		The server, whose caches and pools are reported as well
+	 */
+	public Metrics(HttpServer server) {
+		this.server = server;
+
+		for (int i = 0; i < methods.length; i++) {
+			methods[i] = new LongAdder();
+		}
+
+		for (int i = 0; i < statusCodes.length; i++) {
+			statusCodes[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Counts a new connection.
+	 */
+	public void connectionOpened() {
+		connections.increment();
+		openConnections.increment();
+	}
+
+	/**
+	 * Counts a closed connection.
+	 */
+	public void connectionClosed() {
+		openConnections.decrement();
+	}
+
+	/**
+	 * Counts a connection rejected because the server is overloaded.
+	 */
+	public void connectionRejected() {
+		rejectedConnections.increment();
+	}
+
+	/**
+	 * Records the time it took to parse the header section of a request.
+	 *
+	 * @param nanos
+	 * 		The parse time in nanoseconds
+	 */
+	public void recordParse(long nanos) {
+		parseTime.record(nanos);
+	}
+
+	/**
+	 * Records a handled request.
+	 *
+	 * @param method
+	 * 		The method of the request
+	 * @param statusCode
+	 * 		The status code of the response
+	 * @param nanos
+	 * 		The time it took to handle the request and write the response to the connection's output, in nanoseconds
+	 * @param bytes
+	 * 		The number of bytes of the response (headers included)
+	 */
+	public void recordResponse(String method, int statusCode, long nanos, long bytes) {
+		methods[indexOfMethod(method)].increment();
+
+		if (statusCode >= 0 && statusCode < statusCodes.length) {
+			statusCodes[statusCode].increment();
+		}
+
+		handlerTime.record(nanos);
+		responseSize.record(bytes);
+	}
+
+	/**
+	 * Returns the metrics as a JSON object. Durations are given in microseconds.
+	 *
+	 * @return
+	 * 		The JSON representation of the metrics
+	 */
+	public String toJson() {
+		ContentCache cache = server.getContentCache();
+		AccessLog accessLog = server.getAccessLog();
+		ConcurrencyLimiter limiter = server.getConcurrencyLimiter();
+		RateLimiter rateLimiter = server.getRateLimiter();
+		StringBuilder json = new StringBuilder();
+
+		json.append("{\n");
+		json.append("  \"uptime_seconds\": ").append((System.currentTimeMillis() - startTime) / 1000).append(",\n");
+		json.append("  \"connections\": { \"open\": ").append(openConnections.sum())
+			.append(", \"total\": ").append(connections.sum())
+			.append(", \"rejected\": ").append(rejectedConnections.sum()).append(" },\n");
+		json.append("  \"workers\": { \"queued\": ").append(server.getQueueDepth()).append(" },\n");
+
+		if (limiter != null) {
+			json.append("  \"concurrency_limit\": { \"limit\": ").append(limiter.getLimit())
+				.append(", \"in_flight\": ").append(limiter.getInFlight())
+				.append(", \"rejected\": ").append(limiter.getRejected()).append(" },\n");
+		}
+
+		if (rateLimiter != null) {
+			json.append("  \"rate_limit\": { \"buckets\": ").append(rateLimiter.size())
+				.append(", \"rejected\": ").append(rateLimiter.getRejected()).append(" },\n");
+		}
+
+
+		json.append("  \"requests\": {");
+
+		for (int i = 0; i < methods.length; i++) {
+			json.append(i == 0 ? " " : ", ").append('"').append(getMethodName(i)).append("\": ").append(methods[i].sum());
+		}
+
+		json.append(" },\n");
+		json.append("  \"responses\": {");
+
+		String separator = " ";
+
+		for (int i = 0; i < statusCodes.length; i++) {
+			long count = statusCodes[i].sum();
+
+			if (count > 0) {
+				json.append(separator).append('"').append(i).append("\": ").append(count);
+				separator = ", ";
+			}
+		}
+
+		json.append(" },\n");
+
+		appendJson(json, "parse_time_us", parseTime, 1000);
+		appendJson(json, "handler_time_us", handlerTime, 1000);
+		appendJson(json, "response_bytes", responseSize, 1);
+
+		json.append("  \"content_cache\": { \"hits\": ").append(cache.getHits())
+			.append(", \"misses\": ").append(cache.getMisses())
+			.append(", \"evictions\": ").append(cache.getEvictions())
+			.append(", \"rejections\": ").append(cache.getRejections())
+			.append(", \"bytes\": ").append(cache.getSize()).append(" },\n");
+		json.append("  \"buffer_pool\": { \"buffers\": ").append(server.getBufferPool().getSize()).append(" },\n");
+		json.append("  \"file_index\": { \"files\": ").append(server.getFileIndex().size()).append(" },\n");
+		json.append("  \"access_log\": { \"dropped\": ").append(accessLog != null ? accessLog.getDropped() : 0).append(" }\n");
+		json.append("}\n");
+
+		return json.toString();
+	}
+
+	/**
+	 * Returns the metrics in the Prometheus text exposition format. Durations are given in seconds.
+	 *
+	 * @return
+	 * 		The Prometheus representation of the metrics
+	 */
+	public String toPrometheus() {
+		ContentCache cache = server.getContentCache();
+		AccessLog accessLog = server.getAccessLog();
+		ConcurrencyLimiter limiter = server.getConcurrencyLimiter();
+		RateLimiter rateLimiter = server.getRateLimiter();
+		StringBuilder text = new StringBuilder();
+
+		appendType(text, "http_uptime_seconds", "gauge", "Seconds since the server started.");
+		text.append("http_uptime_seconds ").append((System.currentTimeMillis() - startTime) / 1000).append('\n');
+
+		appendType(text, "http_connections_open", "gauge", "Open connections.");
+		text.append("http_connections_open ").append(openConnections.sum()).append('\n');
+
+		appendType(text, "http_connections_total", "counter", "Accepted connections.");
+		text.append("http_connections_total ").append(connections.sum()).append('\n');
+
+		appendType(text, "http_connections_rejected_total", "counter", "Connections rejected with 503 because the server was overloaded.");
+		text.append("http_connections_rejected_total ").append(rejectedConnections.sum()).append('\n');
+
+		appendType(text, "http_worker_queue_depth", "gauge", "Connections waiting for a worker thread.");
+		text.append("http_worker_queue_depth ").append(server.getQueueDepth()).append('\n');
+
+		if (limiter != null) {
+			appendType(text, "http_concurrency_limit", "gauge", "Requests allowed in flight by the adaptive concurrency limiter.");
+			text.append("http_concurrency_limit ").append(limiter.getLimit()).append('\n');
+			appendType(text, "http_requests_in_flight", "gauge", "Requests being handled.");
+			text.append("http_requests_in_flight ").append(limiter.getInFlight()).append('\n');
+			appendType(text, "http_requests_limited_total", "counter", "Requests rejected with 503 because the concurrency limit was reached.");
+			text.append("http_requests_limited_total ").append(limiter.getRejected()).append('\n');
+		}
+
+		if (rateLimiter != null) {
+			appendType(text, "http_rate_limit_buckets", "gauge", "Token buckets of the recently active clients.");
+			text.append("http_rate_limit_buckets ").append(rateLimiter.size()).append('\n');
+			appendType(text, "http_requests_rate_limited_total", "counter", "Requests rejected with 429 because their client exceeded its rate.");
+			text.append("http_requests_rate_limited_total ").append(rateLimiter.getRejected()).append('\n');
+		}
+
+
+		appendType(text, "http_requests_total", "counter", "Handled requests by method.");
+
+		for (int i = 0; i < methods.length; i++) {
+			text.append("http_requests_total{method=\"").append(getMethodName(i)).append("\"} ").append(methods[i].sum()).append('\n');
+		}
+
+		appendType(text, "http_responses_total", "counter", "Responses by status code.");
+
+		for (int i = 0; i < statusCodes.length; i++) {
+			long count = statusCodes[i].sum();
+
+			if (count > 0) {
+				text.append("http_responses_total{status=\"").append(i).append("\"} ").append(count).append('\n');
+			}
+		}
+
+		appendPrometheus(text, "http_request_parse_seconds", "Time to parse the header section of a request.", parseTime, 1e9);
+		appendPrometheus(text, "http_request_handler_seconds", "Time to handle a request and write its response.", handlerTime, 1e9);
+		appendPrometheus(text, "http_response_bytes", "Size of the responses, headers included.", responseSize, 1);
+
+		appendType(text, "http_content_cache_hits_total", "counter", "Content cache hits.");
+		text.append("http_content_cache_hits_total ").append(cache.getHits()).append('\n');
+		appendType(text, "http_content_cache_misses_total", "counter", "Content cache misses.");
+		text.append("http_content_cache_misses_total ").append(cache.getMisses()).append('\n');
+		appendType(text, "http_content_cache_evictions_total", "counter", "Content cache evictions.");
+		text.append("http_content_cache_evictions_total ").append(cache.getEvictions()).append('\n');
+		appendType(text, "http_content_cache_rejections_total", "counter", "Files too large to be cached.");
+		text.append("http_content_cache_rejections_total ").append(cache.getRejections()).append('\n');
+		appendType(text, "http_content_cache_bytes", "gauge", "Bytes held by the content cache.");
+		text.append("http_content_cache_bytes ").append(cache.getSize()).append('\n');
+
+		appendType(text, "http_buffer_pool_buffers", "gauge", "Buffers in the shared buffer pool.");
+		text.append("http_buffer_pool_buffers ").append(server.getBufferPool().getSize()).append('\n');
+		appendType(text, "http_file_index_files", "gauge", "Files in the index of the document root.");
+		text.append("http_file_index_files ").append(server.getFileIndex().size()).append('\n');
+
+		appendType(text, "http_access_log_dropped_total", "counter", "Access log records dropped because the log could not keep up.");
+		text.append("http_access_log_dropped_total ").append(accessLog != null ? accessLog.getDropped() : 0).append('\n');
+
+		return text.toString();
+	}
+
+	/**
+	 * Appends the given histogram as a JSON object: the count, the mean, the percentiles and the maximum.
+	 */
+	private static void appendJson(StringBuilder json, String name, Histogram histogram, long unit) {
+		long count = histogram.getCount();
+
+		json.append("  \"").append(name).append("\": { \"count\": ").append(count);
+		json.append(", \"mean\": ").append(count > 0 ? histogram.getSum() / count / unit : 0);
+
+		for (double percentile : PERCENTILES) {
+			json.append(", \"p").append(formatPercentile(percentile).replace(".", "")).append("\": ")
+				.append(histogram.getPercentile(percentile) / unit);
+		}
+
+		json.append(", \"max\": ").append(histogram.getMax() / unit).append(" },\n");
+	}
+
+	/**
+	 * Appends the given histogram as a Prometheus summary: the quantiles, the sum and the count.
+	 */
+	private static void appendPrometheus(StringBuilder text, String name, String help, Histogram histogram, double unit) {
+		appendType(text, name, "summary", help);
+
+		for (double percentile : PERCENTILES) {
+			text.append(name).append("{quantile=\"").append(formatPercentile(percentile / 100)).append("\"} ")
+				.append(formatValue(histogram.getPercentile(percentile) / unit)).append('\n');
+		}
+
+		text.append(name).append("_sum ").append(formatValue(histogram.getSum() / unit)).append('\n');
+		text.append(name).append("_count ").append(histogram.getCount()).append('\n');
+	}
+
+	/**
+	 * Appends the "HELP" and "TYPE" lines of a Prometheus metric.
+	 */
+	private static void appendType(StringBuilder text, String name, String type, String help) {
+		text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	/**
+	 * Formats the given percentile or quantile without trailing zeros (e.g. "99.9", "0.5").
+	 */
+	private static String formatPercentile(double value) {
+		String string = String.format(Locale.ROOT, "%.4f", value);
+		string = string.replaceAll("0+$", "");
+
+		return string.endsWith(".") ? string.substring(0, string.length() - 1) : string;
+	}
+
+	/**
+	 * Formats the given value in a way Prometheus can parse.
+	 */
+	private static String formatValue(double value) {
+		return (value == Math.rint(value)) ? Long.toString((long) value) : String.format(Locale.ROOT, "%.9f", value);
+	}
+
+	/**
+	 * Returns the index of the counter of the given method.
+	 */
+	private static int indexOfMethod(String method) {
+		for (int i = 0; i < HttpRequest.METHODS.length; i++) {
+			if (HttpRequest.METHODS[i].equals(method)) {
+				return i;
+			}
+		}
+
+		return HttpRequest.METHODS.length;
+	}
+
+	/**
+	 * Returns the name of the method counted by the counter with the given index.
+	 */
+	private static String getMethodName(int index) {
+		return (index < HttpRequest.METHODS.length) ? HttpRequest.METHODS[index] : "other";
+	}
+}
@@ -0,0 +1,127 @@
+package main;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Represents a connection driven by an {@link EventLoop}.
+ *
+ * Whenever the channel is readable, the available bytes are handed to an {@link HttpConnection}, which handles
+ * the requests that have been received completely. Their responses are collected in a {@link ResponseBuffer},
+ * which is written to the channel whenever it is writable. While the connection waits for a request,
+ * its buffers are given back to the shared {@link BufferPool}.
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class NioConnection {
+
+	private final SocketChannel channel;
+	private final SelectionKey key;
+	private final HttpConnection connection;
+
+	private final ResponseBuffer output;
+	private boolean closing = false;
+	private long lastActivity = System.currentTimeMillis();
+
+	/**
+	 * Constructs a NioConnection from the given components.
+	 *
+	 * @param channel
+	 * 		The non-blocking channel of the connection
+	 * @param key
+	 * 		The selection key of the channel
+	 * @param server
+	 * 		The {@link HttpServer} the connection belongs to
+	 */
+	public NioConnection(SocketChannel channel, SelectionKey key, HttpServer server) {
+		this.channel = channel;
+		this.key = key;
+		this.output = new ResponseBuffer(server.getBufferPool());
+		this.connection = new HttpConnection(channel, output, server);
+	}
+
+	/**
+	 * Reads the available bytes from the channel and handles all complete requests.
+	 *
+	 * @throws IOException
+	 */
+	public void read() throws IOException {
+		lastActivity = System.currentTimeMillis();
+		int count = connection.receive();
+
+		if (count < 0) {
+			close();
+			return;
+		}
+
+		closing = connection.handleRequests();
+		flush();
+	}
+
+	/**
+	 * Writes the pending output to the channel.
+	 *
+	 * @throws IOException
+	 */
+	public void write() throws IOException {
+		lastActivity = System.currentTimeMillis();
+		flush();
+	}
+
+	/**
+	 * Returns whether the connection has been waiting for a request for longer than the given timeout.
+	 *
+	 * @param now
+	 * 		The current time in milliseconds
+	 * @param timeout
+	 * 		The idle timeout in milliseconds
+	 *
+	 * @return
+	 * 		Whether the connection is idle for too long
+	 */
+	public boolean isIdle(long now, long timeout) {
+		return key.isValid() && key.interestOps() == SelectionKey.OP_READ && now - lastActivity > timeout;
+	}
+
+	/**
+	 * Closes the connection.
+	 */
+	public void close() {
+		key.cancel();
+		connection.close();
+	}
+
+	/**
+	 * Writes as much of the output to the channel as possible and updates the interest set accordingly:
+	 * writing if output is left, reading otherwise. Closes the connection if requested and everything is written.
+	 * Once a full batch of pipelined responses is written, the requests waiting behind it are handled.
+	 *
+	 * @throws IOException
+	 */
+	private void flush() throws IOException {
+		while (true) {
+			if (!output.writeTo(channel)) {
+				key.interestOps(SelectionKey.OP_WRITE);
+				return;
+			}
+
+			connection.outputWritten();
+
+			if (closing) {
+				close();
+				return;
+			}
+
+			if (!connection.isSuspended()) {
+				break;
+			}
+
+			closing = connection.handleRequests();
+		}
+
+		key.interestOps(SelectionKey.OP_READ);
+		connection.park();
+	}
+}
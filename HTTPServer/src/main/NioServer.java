@@ -0,0 +1,97 @@
+package main;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Represents the non-blocking transport of the server. It accepts incoming connections on a
+ * {@link ServerSocketChannel} and hands them out round-robin to a fixed number of {@link EventLoop}s,
+ * each multiplexing its connections over a single {@link java.nio.channels.Selector}.
+ * With several {@link Acceptor}s, every acceptor hands out to a group of event loops of its own.
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class NioServer {
+
+	private final HttpServer server;
+	private final EventLoop[] loops;
+
+	/**
+	 * Constructs a NioServer from the given components.
+	 *
+	 * @param server
+	 * 		The {@link HttpServer} the transport belongs to
+	 * @param count
+	 * 		The number of event loops to use
+	 *
+	 * @throws IOException
+	 */
+	public NioServer(HttpServer server, int count) throws IOException {
+		this.server = server;
+		this.loops = new EventLoop[Math.max(1, count)];
+
+		for (int i = 0; i < loops.length; i++) {
+			loops[i] = new EventLoop(server);
+		}
+	}
+
+	/**
+	 * Starts the event loops and accepts incoming connections. This call does not return unless an error occurs.
+	 * With several acceptors, the event loops are split into as many groups.
+	 *
+	 * @throws IOException
+	 */
+	public void serve() throws IOException {
+		for (int i = 0; i < loops.length; i++) {
+			Thread thread = new Thread(loops[i], "event-loop-" + i);
+			thread.start();
+		}
+
+		int port = server.getConfig().getPort();
+		int acceptors = Math.max(1, Math.min(loops.length, server.getConfig().getIntOption("acceptors", 1)));
+		Acceptor.WorkerGroup[] groups = new Acceptor.WorkerGroup[acceptors];
+
+		for (int i = 0; i < groups.length; i++) {
+			groups[i] = new LoopGroup(i, groups.length);
+		}
+
+		ServerSocketChannel[] serverChannels = Acceptor.listen(port, acceptors, 1024);
+		System.out.println("Listening on port " + port + " (nio, " + loops.length + " event loops"
+			+ Acceptor.describe(serverChannels.length, groups.length) + ")...");
+
+		Acceptor.serve(server, serverChannels, groups);
+	}
+
+	/**
+	 * A group of event loops, to which accepted connections are handed out round-robin.
+	 * It is only used by the thread of a single acceptor.
+	 */
+	private class LoopGroup implements Acceptor.WorkerGroup {
+
+		private final int first;
+		private final int step;
+		private int next;
+
+		/**
+		 * Constructs the group with the given index out of the given number of groups:
+		 * the event loops whose index modulo the number of groups is the index of the group.
+		 */
+		private LoopGroup(int index, int count) {
+			this.first = index;
+			this.step = count;
+			this.next = index;
+		}
+
+		@Override
+		public void dispatch(SocketChannel channel) throws IOException {
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+			loops[next].register(channel);
+			next = (next + step < loops.length) ? next + step : first;
+		}
+	}
+}
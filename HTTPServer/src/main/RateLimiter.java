@@ -0,0 +1,285 @@
+package main;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Represents a limit on the rate at which every client may send requests, so a single client cannot saturate the server.
+ * Requests above the rate are answered with "429 Too Many Requests" at once.
+ *
+ * The limits are given as rules: a path prefix, a rate in requests per second and a burst (the number of requests
+ * a client may send at once). The rule with prefix "/" limits all requests of a client, other rules limit its requests
+ * to a part of the site (e.g. "/upload/"). Every client has a token bucket of its own per rule, keyed by its IP address
+ * and the prefix, and a request takes a token from the bucket of every rule its path matches. A rejected request takes
+ * no tokens: those it took from the buckets of the earlier rules are given back.
+ *
+ * A bucket is a single {@link AtomicLong}: the time at which it will be full again (the "theoretical arrival time" of
+ * GCRA), so taking a token is one compare-and-set and never locks. The buckets are kept in a {@link ConcurrentHashMap},
+ * whose lookups do not lock either, and every connection remembers the buckets of its client, so a request on a
+ * keep-alive connection does not even look them up. Buckets that have been full for {@value #EVICTION_SECONDS} seconds
+ * are evicted by a thread of their own, so the table only holds the clients that were active recently.
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class RateLimiter {
+
+	private static final long EVICTION_SECONDS = 60;
+	private static final long SWEEP_MILLIS = 10000;
+
+	private final Rule[] rules;
+	private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+	private final LongAdder rejected = new LongAdder();
+
+	/**
+	 * Constructs a RateLimiter with the given rules and starts evicting its idle buckets.
+	 *
+	 * @param rules
+	 * 		The rules, each limiting the requests to a path prefix
+	 */
+	public RateLimiter(List<Rule> rules) {
+		this.rules = rules.toArray(new Rule[rules.size()]);
+
+		Thread thread = new Thread(this::evictIdleBuckets, "rate-limiter");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Returns the token buckets of the client with the given IP address, to be kept by its connection.
+	 *
+	 * @param address
+	 * 		The IP address of the client
+	 *
+	 * @return
+	 * 		The buckets of the client
+	 */
+	public Client getClient(String address) {
+		return new Client(address);
+	}
+
+	/**
+	 * Returns the number of buckets in the table.
+	 *
+	 * @return
+	 * 		The number of buckets of the recently active clients
+	 */
+	public int size() {
+		return buckets.size();
+	}
+
+	/**
+	 * Returns the number of requests rejected because their client exceeded its rate.
+	 *
+	 * @return
+	 * 		The number of rejected requests
+	 */
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	/**
+	 * Evicts the buckets that have been full for a while. Runs on a thread of its own, checking the buckets
+	 * every {@value #SWEEP_MILLIS} milliseconds.
+	 */
+	private void evictIdleBuckets() {
+		while (true) {
+			try {
+				Thread.sleep(SWEEP_MILLIS);
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			long idleSince = System.nanoTime() - EVICTION_SECONDS * 1000000000;
+
+			buckets.forEach((key, bucket) -> {
+				if (bucket.isFullSince(idleSince) && buckets.remove(key, bucket)) {
+					bucket.evicted = true;
+				}
+			});
+		}
+	}
+
+	/**
+	 * A rule of the rate limiter: the rate at which a client may send requests to the paths starting with a prefix.
+	 */
+	public static class Rule {
+
+		private final String prefix;
+		private final long interval;
+		private final long tolerance;
+
+		/**
+		 * Constructs a Rule from the given components.
+		 *
+		 * @param prefix
+		 * 		The prefix of the limited paths ("/" for all paths)
+		 * @param rate
+		 * 		The number of requests per second a client may send
+		 * @param burst
+		 * 		The number of requests a client may send at once
+		 *
+		 * @throws IllegalArgumentException
+		 * 		If the rate or the burst is not positive
+		 */
+		public Rule(String prefix, double rate, int burst) throws IllegalArgumentException {
+			if (rate <= 0 || burst <= 0) {
+				throw new IllegalArgumentException("the rate and burst of '" + prefix + "' must be positive.");
+			}
+
+			this.prefix = prefix;
+			this.interval = Math.max(1, (long) (1e9 / rate));
+			this.tolerance = burst * interval;
+		}
+
+		/**
+		 * Parses a rule given as "PREFIX:RATE" or "PREFIX:RATE:BURST" (the burst defaults to the rate, at least 1).
+		 *
+		 * @param rule
+		 * 		The rule (e.g. "/upload/:5")
+		 *
+		 * @return
+		 * 		The parsed rule
+		 *
+		 * @throws IllegalArgumentException
+		 * 		If the rule is malformed
+		 */
+		public static Rule parse(String rule) throws IllegalArgumentException {
+			String[] parts = rule.split(":");
+
+			if (parts.length < 2 || parts.length > 3 || !parts[0].startsWith("/")) {
+				throw new IllegalArgumentException("invalid rate limit '" + rule + "' (expected PREFIX:RATE[:BURST]).");
+			}
+
+			try {
+				double rate = Double.parseDouble(parts[1]);
+				int burst = (parts.length == 3) ? Integer.parseInt(parts[2]) : (int) Math.max(1, Math.ceil(rate));
+
+				return new Rule(parts[0], rate, burst);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("invalid rate limit '" + rule + "' (expected PREFIX:RATE[:BURST]).");
+			}
+		}
+	}
+
+	/**
+	 * The token buckets of a client, one per rule, looked up when they are first needed.
+	 */
+	public class Client {
+
+		private final String address;
+		private final Bucket[] clientBuckets = new Bucket[rules.length];
+
+		/**
+		 * Constructs a Client with the given IP address.
+		 *
+		 * @param address
+		 * 		The IP address of the client
+		 */
+		private Client(String address) {
+			this.address = address;
+		}
+
+		/**
+		 * Takes a token from the bucket of every rule the given path matches, if none of them is empty.
+		 * Otherwise no token is taken: the tokens already taken from the buckets of the earlier rules are given back.
+		 *
+		 * @param path
+		 * 		The path of the request
+		 *
+		 * @return
+		 * 		0 if the request is admitted, otherwise the number of nanoseconds after which it would be
+		 */
+		public long acquire(String path) {
+			long now = System.nanoTime();
+
+			for (int i = 0; i < rules.length; i++) {
+				Rule rule = rules[i];
+
+				if (!path.startsWith(rule.prefix)) {
+					continue;
+				}
+
+				Bucket bucket = clientBuckets[i];
+
+				if (bucket == null || bucket.evicted) {
+					bucket = buckets.computeIfAbsent(address + " " + rule.prefix, key -> new Bucket(now));
+					clientBuckets[i] = bucket;
+				}
+
+				long wait = bucket.take(now, rule.interval, rule.tolerance);
+
+				if (wait > 0) {
+					for (int j = 0; j < i; j++) {
+						if (path.startsWith(rules[j].prefix)) {
+							clientBuckets[j].giveBack(rules[j].interval);
+						}
+					}
+
+					rejected.increment();
+					return wait;
+				}
+			}
+
+			return 0;
+		}
+	}
+
+	/**
+	 * A token bucket, represented by the time at which it will be full again.
+	 * Taking a token moves that time one interval further, unless it would then lie more than the tolerance
+	 * (the burst times the interval) in the future: the bucket is empty.
+	 */
+	private static class Bucket {
+
+		private final AtomicLong fullAt;
+		private volatile boolean evicted = false;
+
+		/**
+		 * Constructs a full Bucket.
+		 *
+		 * @param now
+		 * 		The current value of {@link System#nanoTime()}
+		 */
+		private Bucket(long now) {
+			this.fullAt = new AtomicLong(now);
+		}
+
+		/**
+		 * Takes a token from the bucket if it is not empty.
+		 *
+		 * @return
+		 * 		0 if a token has been taken, otherwise the number of nanoseconds until there is one
+		 */
+		private long take(long now, long interval, long tolerance) {
+			while (true) {
+				long current = fullAt.get();
+				long next = Math.max(current, now) + interval;
+
+				if (next - now > tolerance) {
+					return next - now - tolerance;
+				}
+
+				if (fullAt.compareAndSet(current, next)) {
+					return 0;
+				}
+			}
+		}
+
+		/**
+		 * Gives back a token taken with {@link #take(long, long, long)}.
+		 */
+		private void giveBack(long interval) {
+			fullAt.addAndGet(-interval);
+		}
+
+		/**
+		 * Returns whether the bucket has been full since the given time.
+		 */
+		private boolean isFullSince(long time) {
+			return fullAt.get() - time < 0;
+		}
+	}
+}
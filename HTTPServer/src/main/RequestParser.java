@@ -0,0 +1,448 @@
+package main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Represents the input side of a connection: a reusable byte buffer the socket is read into,
+ * and a parser turning the bytes in that buffer into {@link HttpRequest}s.
+ *
+ * The parser works on the raw bytes: it does not build a string per line or per header, but lets the
+ * request refer to the header names and values in the buffer. It can be resumed when the header section
+ * is not complete yet, so it works for blocking and non-blocking channels alike.
+ *
+ * The buffer layout is: [0, position) consumed, [position, limit) received but not consumed, [limit, capacity) free.
+ * As long as a request is in use (see {@link #release()}), its header section is kept in place.
+ * The buffer is taken from a {@link BufferPool} when bytes are read and can be given back while the connection is idle (see {@link #park()}).
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class RequestParser {
+
+	private static final int MIN_READ = 1024;
+
+	private final BufferPool pool;
+	private final int maxHeaderSize;
+
+	private byte[] buffer = null;
+	private ByteBuffer wrapper = null;
+	private int position = 0;
+	private int limit = 0;
+
+	// the state of the scan for the end of the header section, so it can be resumed
+
+	private int scanned = 0;
+	private int lineStart = 0;
+
+	// the end of the header section of the request in use, or -1 if none is in use
+
+	private int headerEnd = -1;
+
+	/**
+	 * Constructs a RequestParser taking its buffer from the given pool.
+	 *
+	 * @param pool
+	 * 		The pool providing the buffer (its size is the initial size of the buffer)
+	 * @param maxHeaderSize
+	 * 		The maximum size in bytes of the header section of a request (the buffer grows up to this size if needed)
+	 */
+	public RequestParser(BufferPool pool, int maxHeaderSize) {
+		this.pool = pool;
+		this.maxHeaderSize = maxHeaderSize;
+	}
+
+	/**
+	 * Reads the bytes available from the given channel into the buffer.
+	 * A blocking channel waits for at least one byte, a non-blocking one may read nothing.
+	 *
+	 * @param channel
+	 * 		The channel to read from
+	 *
+	 * @return
+	 * 		The number of bytes read or -1 if the channel has reached end-of-stream
+	 *
+	 * @throws IOException
+	 */
+	public int fill(ReadableByteChannel channel) throws IOException {
+		if (buffer == null) {
+			buffer = pool.acquire();
+			wrapper = ByteBuffer.wrap(buffer);
+		}
+
+		makeRoom();
+
+		wrapper.limit(buffer.length);
+		wrapper.position(limit);
+
+		int count = channel.read(wrapper);
+
+		if (count > 0) {
+			limit += count;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Returns whether bytes have been received that are not consumed yet.
+	 *
+	 * @return
+	 * 		Whether there are unconsumed bytes in the buffer
+	 */
+	public boolean hasRemaining() {
+		return position < limit;
+	}
+
+	/**
+	 * Parses the header section of the next request in the buffer into the given request.
+	 * The request refers to the buffer, so it can only be used until it is released.
+	 *
+	 * @param request
+	 * 		The request to parse into
+	 *
+	 * @return
+	 * 		Whether a complete header section has been parsed (false if more bytes are needed)
+	 *
+	 * @throws IllegalArgumentException
+	 * 		If the request is malformed or its header section is too large
+	 */
+	public boolean parse(HttpRequest request) throws IllegalArgumentException {
+		if (buffer == null) {
+			return false;
+		}
+
+		// skip empty lines preceding the request line
+
+		while (position < limit && (buffer[position] == '\r' || buffer[position] == '\n')) {
+			position++;
+		}
+
+		if (scanned < position) {
+			scanned = position;
+			lineStart = position;
+		}
+
+
+		// search the empty line ending the header section
+
+		int end = -1;
+
+		for (int i = scanned; i < limit; i++) {
+			if (buffer[i] != '\n') {
+				continue;
+			}
+
+			int lineEnd = (i > lineStart && buffer[i - 1] == '\r') ? i - 1 : i;
+
+			if (lineEnd == lineStart) {
+				end = i + 1;
+				break;
+			}
+
+			lineStart = i + 1;
+		}
+
+		if (end < 0) {
+			scanned = limit;
+
+			if (limit - position >= maxHeaderSize) {
+				throw new IllegalArgumentException("header section too large");
+			}
+
+			return false;
+		}
+
+
+		// parse the request line and the header lines
+
+		request.reset(buffer);
+
+		int start = position;
+		int lineEnd = indexOf(buffer, '\n', start, end);
+		parseRequestLine(request, start, trimEnd(start, lineEnd));
+
+		start = lineEnd + 1;
+
+		while (start < end) {
+			lineEnd = indexOf(buffer, '\n', start, end);
+			int trimmed = trimEnd(start, lineEnd);
+
+			if (trimmed > start) {
+				parseHeader(request, start, trimmed);
+			}
+
+			start = lineEnd + 1;
+		}
+
+		position = end;
+		scanned = end;
+		lineStart = end;
+		headerEnd = end;
+
+		return true;
+	}
+
+	/**
+	 * Consumes up to the given number of received bytes (e.g. a part of a request body).
+	 *
+	 * @param count
+	 * 		The maximum number of bytes to consume
+	 *
+	 * @return
+	 * 		A view of the consumed bytes, valid until the next call to this parser
+	 */
+	public ByteBuffer consume(long count) {
+		int length = (int) Math.min(count, limit - position);
+
+		wrapper.limit(position + length);
+		wrapper.position(position);
+		position += length;
+
+		return wrapper;
+	}
+
+	/**
+	 * Releases the request in use, so its bytes can be overwritten.
+	 */
+	public void release() {
+		headerEnd = -1;
+	}
+
+	/**
+	 * Gives the buffer back to the pool if no bytes are waiting in it and no request is in use.
+	 * A buffer is taken from the pool again by the next call to {@link #fill(ReadableByteChannel)}.
+	 *
+	 * @return
+	 * 		Whether the buffer has been given back (or there was none)
+	 */
+	public boolean park() {
+		if (buffer == null) {
+			return true;
+		}
+
+		if (headerEnd >= 0 || position < limit) {
+			return false;
+		}
+
+		// a buffer that has grown for a large header section is not pooled, so it is freed as well
+
+		pool.release(buffer);
+
+		buffer = null;
+		wrapper = null;
+		position = 0;
+		limit = 0;
+		scanned = 0;
+		lineStart = 0;
+
+		return true;
+	}
+
+	/**
+	 * Makes room in the buffer for more bytes, preserving the bytes that are still needed:
+	 * the unconsumed bytes and the header section of the request in use.
+	 */
+	private void makeRoom() {
+		if (headerEnd >= 0) {
+
+			// a request is in use: once its received body bytes are consumed, the space following its header section is reused
+
+			if (position == limit) {
+				position = headerEnd;
+				limit = headerEnd;
+				scanned = headerEnd;
+				lineStart = headerEnd;
+			}
+		}
+		else if (position == limit) {
+			position = 0;
+			limit = 0;
+			scanned = 0;
+			lineStart = 0;
+		}
+		else if (position > 0 && buffer.length - limit < MIN_READ) {
+			System.arraycopy(buffer, position, buffer, 0, limit - position);
+			limit -= position;
+			scanned = Math.max(0, scanned - position);
+			lineStart = Math.max(0, lineStart - position);
+			position = 0;
+		}
+
+		if (buffer.length - limit < MIN_READ) {
+			grow();
+		}
+	}
+
+	/**
+	 * Doubles the size of the buffer. The offsets of the bytes in the buffer do not change.
+	 */
+	private void grow() {
+		byte[] grown = new byte[buffer.length * 2];
+		System.arraycopy(buffer, 0, grown, 0, limit);
+
+		buffer = grown;
+		wrapper = ByteBuffer.wrap(buffer);
+	}
+
+	/**
+	 * Parses the given request line ("METHOD TARGET VERSION") into the given request.
+	 *
+	 * @param request
+	 * 		The request to parse into
+	 * @param start
+	 * 		The index of the first byte of the line
+	 * @param end
+	 * 		The index after the last byte of the line
+	 *
+	 * @throws IllegalArgumentException
+	 * 		If the request line is malformed
+	 */
+	private void parseRequestLine(HttpRequest request, int start, int end) throws IllegalArgumentException {
+		int methodEnd = indexOfWhitespace(start, end);
+		int targetStart = skipWhitespace(methodEnd, end);
+		int targetEnd = indexOfWhitespace(targetStart, end);
+		int versionStart = skipWhitespace(targetEnd, end);
+		int versionEnd = indexOfWhitespace(versionStart, end);
+
+		if (methodEnd == start || targetEnd == targetStart || versionEnd == versionStart || skipWhitespace(versionEnd, end) != end) {
+			throw new IllegalArgumentException("malformed request line");
+		}
+
+		request.setRequestLine(start, end);
+		request.setMethod(intern(HttpRequest.METHODS, start, methodEnd));
+		request.setPath(decodePath(targetStart, targetEnd));
+		request.setVersion(intern(HttpRequest.VERSIONS, versionStart, versionEnd));
+	}
+
+	/**
+	 * Parses the given header line ("Name: value") into the given request.
+	 *
+	 * @param request
+	 * 		The request to parse into
+	 * @param start
+	 * 		The index of the first byte of the line
+	 * @param end
+	 * 		The index after the last byte of the line
+	 *
+	 * @throws IllegalArgumentException
+	 * 		If the header line is malformed
+	 */
+	private void parseHeader(HttpRequest request, int start, int end) throws IllegalArgumentException {
+		int colon = indexOf(buffer, ':', start, end);
+
+		if (colon == end) {
+			throw new IllegalArgumentException("malformed header line");
+		}
+
+		int nameStart = skipWhitespace(start, colon);
+		int nameEnd = colon;
+
+		while (nameEnd > nameStart && isWhitespace(buffer[nameEnd - 1])) {
+			nameEnd--;
+		}
+
+		if (nameEnd == nameStart) {
+			throw new IllegalArgumentException("malformed header line");
+		}
+
+		request.addHeader(nameStart, nameEnd, skipWhitespace(colon + 1, end), end);
+	}
+
+	/**
+	 * Returns the resource path of the given request target, with "%20" decoded to a space.
+	 *
+	 * @param start
+	 * 		The index of the first byte of the request target
+	 * @param end
+	 * 		The index after the last byte of the request target
+	 *
+	 * @return
+	 * 		The decoded resource path
+	 */
+	private String decodePath(int start, int end) {
+		String path = new String(buffer, start, end - start, StandardCharsets.ISO_8859_1);
+
+		if (indexOf(buffer, '%', start, end) == end) {
+			return path;
+		}
+
+		return path.replace("%20", " ");
+	}
+
+	/**
+	 * Returns the constant among the given ones equal to the given bytes, or a new string if there is none.
+	 *
+	 * @param constants
+	 * 		The constants to look in
+	 * @param start
+	 * 		The index of the first byte
+	 * @param end
+	 * 		The index after the last byte
+	 *
+	 * @return
+	 * 		The matching constant or a new string
+	 */
+	private String intern(String[] constants, int start, int end) {
+		for (String constant : constants) {
+			if (HttpRequest.equals(buffer, start, end, constant, false)) {
+				return constant;
+			}
+		}
+
+		return new String(buffer, start, end - start, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Returns the index after the last non-whitespace byte of the given line (also dropping a carriage return).
+	 */
+	private int trimEnd(int start, int end) {
+		while (end > start && (isWhitespace(buffer[end - 1]) || buffer[end - 1] == '\r')) {
+			end--;
+		}
+
+		return end;
+	}
+
+	/**
+	 * Returns the index of the first whitespace byte in the given range, or the end of the range if there is none.
+	 */
+	private int indexOfWhitespace(int start, int end) {
+		while (start < end && !isWhitespace(buffer[start])) {
+			start++;
+		}
+
+		return start;
+	}
+
+	/**
+	 * Returns the index of the first non-whitespace byte in the given range, or the end of the range if there is none.
+	 */
+	private int skipWhitespace(int start, int end) {
+		while (start < end && isWhitespace(buffer[start])) {
+			start++;
+		}
+
+		return start;
+	}
+
+	/**
+	 * Returns the index of the given byte in the given range of the given buffer, or the end of the range if absent.
+	 */
+	private static int indexOf(byte[] buffer, char c, int start, int end) {
+		while (start < end && buffer[start] != c) {
+			start++;
+		}
+
+		return start;
+	}
+
+	/**
+	 * Returns whether the given byte is a space or a horizontal tab.
+	 */
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t';
+	}
+}
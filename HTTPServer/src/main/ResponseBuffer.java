@@ -0,0 +1,381 @@
+package main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+/**
+ * Represents the pending output of a connection: a queue of segments that still have to be written to the socket.
+ * A segment is either a number of bytes (e.g. the headers) or a region of a file.
+ *
+ * File regions are never loaded onto the heap: they are sent with {@link FileChannel#transferTo} (sendfile),
+ * so the memory used by a response does not depend on the size of the file. Consecutive byte segments
+ * (e.g. the headers and a cached body) are sent with a single gathering write.
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class ResponseBuffer {
+
+	private static final int MAX_GATHER = 16;
+
+	private final BufferPool pool;
+	private final int bufferSize;
+
+	private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+	private final ArrayDeque<Segment> free = new ArrayDeque<>();
+	private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+
+	private ByteBuffer current = null;
+	private ByteBuffer spare = null;
+	private long appended = 0;
+
+	/**
+	 * Constructs an empty ResponseBuffer copying small writes into buffers taken from the given pool.
+	 *
+	 * @param pool
+	 * 		The pool providing the buffers
+	 */
+	public ResponseBuffer(BufferPool pool) {
+		this.pool = pool;
+		this.bufferSize = pool.getBufferSize();
+	}
+
+	/**
+	 * Appends the given bytes to the output.
+	 *
+	 * @param bytes
+	 * 		The bytes to append
+	 */
+	public void write(byte[] bytes) {
+		write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Appends the given range of bytes to the output.
+	 * Large ranges are not copied, so the caller must not modify them afterwards.
+	 *
+	 * @param bytes
+	 * 		The array containing the bytes to append
+	 * @param offset
+	 * 		The index of the first byte to append
+	 * @param length
+	 * 		The number of bytes to append
+	 */
+	public void write(byte[] bytes, int offset, int length) {
+		appended += length;
+
+		if (length > bufferSize) {
+			seal();
+			add(ByteBuffer.wrap(bytes, offset, length), false);
+			return;
+		}
+
+		if (current != null && current.remaining() < length) {
+			seal();
+		}
+
+		if (current == null) {
+			current = (spare != null) ? spare : ByteBuffer.wrap(pool.acquire());
+			spare = null;
+		}
+
+		current.put(bytes, offset, length);
+	}
+
+	/**
+	 * Appends a copy of the given range of bytes to the output, however large the range is,
+	 * so the caller can reuse the array right away.
+	 *
+	 * @param bytes
+	 * 		The array containing the bytes to append
+	 * @param offset
+	 * 		The index of the first byte to append
+	 * @param length
+	 * 		The number of bytes to append
+	 */
+	public void copy(byte[] bytes, int offset, int length) {
+		while (length > 0) {
+			int n = Math.min(length, bufferSize);
+
+			write(bytes, offset, n);
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Appends the remaining bytes of the given buffer to the output, without copying them.
+	 * The caller must not modify the buffer or its content afterwards.
+	 *
+	 * @param buffer
+	 * 		The buffer to append (e.g. a view of a cached body)
+	 */
+	public void write(ByteBuffer buffer) {
+		appended += buffer.remaining();
+		seal();
+		add(buffer, false);
+	}
+
+	/**
+	 * Appends the given region of the given file to the output.
+	 * The file channel is closed once the region has been written (or when the output is cleared).
+	 *
+	 * @param file
+	 * 		The channel of the file to send
+	 * @param position
+	 * 		The position of the first byte to send
+	 * @param count
+	 * 		The number of bytes to send
+	 */
+	public void transfer(FileChannel file, long position, long count) {
+		transfer(file, position, count, true);
+	}
+
+	/**
+	 * Appends the given region of the given file to the output. Several regions of the same file can be appended
+	 * by only letting the last one close the file.
+	 *
+	 * @param file
+	 * 		The channel of the file to send
+	 * @param position
+	 * 		The position of the first byte to send
+	 * @param count
+	 * 		The number of bytes to send
+	 * @param close
+	 * 		Whether to close the file channel once the region has been written (or when the output is cleared)
+	 */
+	public void transfer(FileChannel file, long position, long count, boolean close) {
+		appended += count;
+		seal();
+
+		Segment segment = obtain();
+		segment.buffer = null;
+		segment.owned = false;
+		segment.file = file;
+		segment.close = close;
+		segment.position = position;
+		segment.remaining = count;
+
+		segments.add(segment);
+	}
+
+	/**
+	 * Returns the number of bytes appended to the output since this buffer was constructed, written or not.
+	 *
+	 * @return
+	 * 		The number of bytes appended
+	 */
+	public long getAppended() {
+		return appended;
+	}
+
+	/**
+	 * Returns whether all of the output has been written.
+	 *
+	 * @return
+	 * 		Whether the output is empty
+	 */
+	public boolean isEmpty() {
+		return segments.isEmpty() && (current == null || current.position() == 0);
+	}
+
+	/**
+	 * Writes as much of the output to the given channel as possible.
+	 * A blocking channel writes everything, a non-blocking one stops as soon as the socket buffer is full.
+	 *
+	 * @param channel
+	 * 		The channel to write to
+	 *
+	 * @return
+	 * 		Whether all of the output has been written
+	 *
+	 * @throws IOException
+	 */
+	public boolean writeTo(SocketChannel channel) throws IOException {
+		seal();
+
+		while (!segments.isEmpty()) {
+			Segment segment = segments.peek();
+
+			if (segment.file == null) {
+
+				// gather the consecutive buffers into one write
+
+				int count = 0;
+
+				for (Segment next : segments) {
+					if (next.file != null || count == MAX_GATHER) {
+						break;
+					}
+
+					gather[count++] = next.buffer;
+				}
+
+				channel.write(gather, 0, count);
+
+				for (int i = 0; i < count; i++) {
+					gather[i] = null;
+				}
+
+				int written = 0;
+
+				while (!segments.isEmpty() && segments.peek().file == null && !segments.peek().buffer.hasRemaining()) {
+					release(segments.poll());
+					written++;
+				}
+
+				if (written < count) {
+					return false;
+				}
+			} else {
+				long count = segment.file.transferTo(segment.position, segment.remaining, channel);
+				segment.position += count;
+				segment.remaining -= count;
+
+				if (segment.remaining == 0) {
+					release(segments.poll());
+				}
+				else if (count == 0 && segment.position >= segment.file.size()) {
+					throw new IOException("file truncated while sending");
+				}
+				else if (!channel.isBlocking()) {
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Discards all of the output that has not been written yet.
+	 */
+	public void clear() {
+		if (current != null) {
+			pool.release(current.array());
+			current = null;
+		}
+
+		while (!segments.isEmpty()) {
+			release(segments.poll());
+		}
+
+		park();
+	}
+
+	/**
+	 * Gives the buffers kept for reuse back to the pool if all of the output has been written.
+	 * New buffers are taken from the pool when more output is written.
+	 *
+	 * @return
+	 * 		Whether the buffers have been given back
+	 */
+	public boolean park() {
+		if (!isEmpty()) {
+			return false;
+		}
+
+		if (current != null) {
+			pool.release(current.array());
+			current = null;
+		}
+
+		if (spare != null) {
+			pool.release(spare.array());
+			spare = null;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Ends the buffer that is currently being filled, appending it to the queue of segments.
+	 */
+	private void seal() {
+		if (current == null) {
+			return;
+		}
+
+		if (current.position() == 0) {
+			return;
+		}
+
+		current.flip();
+		add(current, true);
+		current = null;
+	}
+
+	/**
+	 * Releases the resources of the given segment once it is written or discarded:
+	 * the file is closed and buffers owned by this instance are kept for reuse.
+	 *
+	 * @param segment
+	 * 		The segment to release
+	 */
+	private void release(Segment segment) {
+		if (segment.file != null && segment.close) {
+			try {
+				segment.file.close();
+			} catch (IOException e) {}
+		}
+		else if (segment.file == null && segment.owned) {
+			if (spare != null) {
+				pool.release(spare.array());
+			}
+
+			segment.buffer.clear();
+			spare = segment.buffer;
+		}
+
+		segment.buffer = null;
+		segment.file = null;
+
+		if (free.size() < MAX_GATHER) {
+			free.push(segment);
+		}
+	}
+
+	/**
+	 * Appends a segment for the given buffer to the queue.
+	 *
+	 * @param buffer
+	 * 		The buffer (in read mode)
+	 * @param owned
+	 * 		Whether the buffer was allocated by this instance (and can be reused once written)
+	 */
+	private void add(ByteBuffer buffer, boolean owned) {
+		Segment segment = obtain();
+		segment.buffer = buffer;
+		segment.owned = owned;
+
+		segments.add(segment);
+	}
+
+	/**
+	 * Returns an unused segment, reusing a released one if possible.
+	 *
+	 * @return
+	 * 		An empty segment
+	 */
+	private Segment obtain() {
+		Segment segment = free.poll();
+		return (segment != null) ? segment : new Segment();
+	}
+
+	/**
+	 * A segment of the output: either a buffer or a file region.
+	 */
+	private static class Segment {
+
+		private ByteBuffer buffer;
+		private boolean owned;
+
+		private FileChannel file;
+		private boolean close;
+		private long position;
+		private long remaining;
+	}
+}
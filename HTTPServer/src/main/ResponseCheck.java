@@ -0,0 +1,206 @@
+package main;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * The check of the responses of the server to sequences of requests that once broke it, to catch regressions.
+ *
+ * It starts the server in-process with the content cache disabled, so every body is sent from its file, and sends
+ * the requests of every check over a persistent loopback connection of its own. The program exits with status 1
+ * if a response is not the expected one.
+ *
+ * Usage: java main.ResponseCheck DIRECTORY [server options]<br>
+ * where DIRECTORY is a directory in 'files/' containing an "index.html" of at least 30 bytes (e.g. "site").
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class ResponseCheck {
+
+	private static final String[] CHECKS = { "multipart-ranges-after-buffered-response" };
+
+	private final SocketChannel channel;
+	private final ByteBuffer input = ByteBuffer.allocate(65536);
+
+	/**
+	 * The main function of the check.
+	 *
+	 * @param args
+	 * 		The command-line arguments (the options of the server are passed on to it)
+	 *
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		ServerConfig config;
+		int port;
+
+		// the server listens on a free port
+
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+
+		try {
+			String[] serverArgs = new String[args.length + 2];
+			serverArgs[0] = "--cache-size=0";
+			System.arraycopy(args, 0, serverArgs, 1, args.length);
+			serverArgs[args.length + 1] = Integer.toString(port);
+
+			config = new ServerConfig(serverArgs);
+		} catch (IllegalArgumentException e) {
+			System.out.println("Error: " + e.getMessage());
+			System.exit(2);
+			return;
+		}
+
+		AllocationCheck.startServer(config);
+
+		boolean passed = true;
+
+		for (String name : CHECKS) {
+			String failure;
+
+			try {
+				failure = new ResponseCheck(port).run(name);
+			} catch (IOException e) {
+				failure = e.getMessage();
+			}
+
+			passed &= (failure == null);
+
+			System.out.println(String.format(Locale.ROOT, "%-42s %s", name, (failure == null) ? "OK" : "FAILED (" + failure + ")"));
+		}
+
+		System.exit(passed ? 0 : 1);
+	}
+
+	/**
+	 * Constructs a ResponseCheck connected to the server on the given port.
+	 */
+	private ResponseCheck(int port) throws IOException {
+		channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+	}
+
+	/**
+	 * Runs the check with the given name.
+	 *
+	 * @return
+	 * 		null if the check passed, otherwise a description of the failure
+	 *
+	 * @throws IOException
+	 */
+	private String run(String name) throws IOException {
+		try {
+			switch (name) {
+			case "multipart-ranges-after-buffered-response":
+				return checkMultipartRanges();
+
+			default:
+				return "unknown check";
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Requests two ranges of a file that is not cached, after a response whose body was buffered on the same connection.
+	 * The parts of the multipart body are regions of the same file, of which only the last one closes it; the segments
+	 * of the output that sent the earlier response are reused for them.
+	 */
+	private String checkMultipartRanges() throws IOException {
+		String whole = send("GET /index.html HTTP/1.1\r\nHost: localhost\r\n\r\n");
+
+		if (!whole.startsWith("HTTP/1.1 200 ")) {
+			return "GET answered with " + getStatusLine(whole);
+		}
+
+		String body = whole.substring(whole.indexOf("\r\n\r\n") + 4);
+
+		if (body.length() < 30) {
+			return "index.html is shorter than 30 bytes";
+		}
+
+		String ranges = send("GET /index.html HTTP/1.1\r\nHost: localhost\r\nRange: bytes=0-9,20-29\r\n\r\n");
+
+		if (!ranges.startsWith("HTTP/1.1 206 ")) {
+			return "range request answered with " + getStatusLine(ranges);
+		}
+
+		String[] parts = { "Content-Range: bytes 0-9/" + body.length() + "\r\n\r\n" + body.substring(0, 10),
+			"Content-Range: bytes 20-29/" + body.length() + "\r\n\r\n" + body.substring(20, 30) };
+
+		for (String part : parts) {
+			if (!ranges.contains(part)) {
+				return "missing part '" + part.substring(0, part.indexOf("\r\n")) + "'";
+			}
+		}
+
+		// the connection has to survive the response (the entity tag may have changed once the file has been hashed)
+
+		String again = send("GET /index.html HTTP/1.1\r\nHost: localhost\r\n\r\n");
+		return (again.startsWith("HTTP/1.1 200 ") && again.endsWith("\r\n\r\n" + body)) ? null : "the next response differs";
+	}
+
+	/**
+	 * Returns the status line of the given response.
+	 */
+	private static String getStatusLine(String response) {
+		int end = response.indexOf("\r\n");
+		return (end < 0) ? response : response.substring(0, end);
+	}
+
+	/**
+	 * Sends the given request and reads its response.
+	 *
+	 * @return
+	 * 		The response (decoded as ISO-8859-1, so every byte is a character)
+	 *
+	 * @throws IOException
+	 */
+	private String send(String request) throws IOException {
+		ByteBuffer output = ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII));
+
+		while (output.hasRemaining()) {
+			channel.write(output);
+		}
+
+		// read the header section, then the body (every checked response has a "Content-Length")
+
+		ByteArrayOutputStream response = new ByteArrayOutputStream();
+		int end = -1;
+
+		while (end < 0 || response.size() < end) {
+			input.clear();
+
+			if (channel.read(input) < 0) {
+				throw new IOException("connection closed by the server");
+			}
+
+			response.write(input.array(), 0, input.position());
+
+			String received = new String(response.toByteArray(), StandardCharsets.ISO_8859_1);
+			int headerEnd = received.indexOf("\r\n\r\n");
+
+			if (end < 0 && headerEnd >= 0) {
+				int start = received.indexOf("\r\nContent-Length: ");
+
+				if (start < 0 || start > headerEnd) {
+					throw new IOException("response without Content-Length");
+				}
+
+				int valueEnd = received.indexOf("\r\n", start + 2);
+				end = headerEnd + 4 + Integer.parseInt(received.substring(start + 18, valueEnd));
+			}
+		}
+
+		return new String(response.toByteArray(), StandardCharsets.ISO_8859_1);
+	}
+}
@@ -0,0 +1,429 @@
+package main;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * Represents the encoding side of a connection: it writes status lines, headers and bodies to a {@link ResponseBuffer}.
+ *
+ * Everything that is the same for many responses is encoded once and shared by all connections:
+ * the status lines, the error pages, the "Content-Type" headers of the known MIME types and the
+ * "Date" header, which is encoded again at most once per second.
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class ResponseWriter {
+
+	/**
+	 * The formatter of HTTP dates (e.g. "Sun, 06 Nov 1994 08:49:37 GMT"), shared by all threads.
+	 */
+	public static final DateTimeFormatter HTTP_DATE = DateTimeFormatter
+		.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+		.withZone(ZoneOffset.UTC);
+
+	private static final int[] STATUS_CODES = { 200, 206, 304, 400, 404, 412, 416, 429, 500, 501, 503 };
+	private static final String[] MIME_TYPES = {
+		"text/html", "text/plain", "image/png", "image/jpeg", "image/gif", "image/bmp",
+		"audio/mpeg", "video/mp4", "application/octet-stream"
+	};
+
+	private static final byte[] CRLF = { '\r', '\n' };
+	private static final byte[] CONTENT_LENGTH = "Content-Length: ".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] CHUNKED = "Transfer-Encoding: chunked\r\n".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] CONNECTION_CLOSE = "Connection: close\r\n".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] VARY = "Vary: Accept-Encoding\r\n".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] ACCEPT_RANGES = "Accept-Ranges: bytes\r\n".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[][] STATUS_LINES = new byte[600][];
+	private static final byte[][] ERROR_PAGES = new byte[600][];
+	private static final byte[][] CONTENT_TYPES = new byte[MIME_TYPES.length][];
+
+	private static volatile DateLine dateLine = new DateLine(0, null);
+	private static volatile ParsedDate parsedDate = new ParsedDate("", -1);
+
+	static {
+		for (int statusCode : STATUS_CODES) {
+			String reason = getReasonPhrase(statusCode);
+
+			STATUS_LINES[statusCode] = ("HTTP/1.1 " + statusCode + " " + reason + "\r\n").getBytes(StandardCharsets.US_ASCII);
+			ERROR_PAGES[statusCode] = String.join("\n", new String[]{
+				"<!DOCTYPE html>",
+				"<head>",
+				"  <meta charset='utf-8'>",
+				"  <title>" + statusCode + "</title>",
+				"</head>",
+				"<body>",
+				"",
+				"<h1>" + statusCode + " " + reason + "</h1>",
+				"",
+				"</body>",
+				"</html>"
+			}).getBytes(StandardCharsets.UTF_8);
+		}
+
+		for (int i = 0; i < MIME_TYPES.length; i++) {
+			CONTENT_TYPES[i] = ("Content-Type: " + MIME_TYPES[i] + "\r\n").getBytes(StandardCharsets.US_ASCII);
+		}
+	}
+
+	private final ResponseBuffer buffer;
+	private final byte[] digits = new byte[20];
+	private boolean closing = false;
+
+	// the status code of the last response and the position in the output where its body starts
+
+	private int statusCode = 0;
+	private long bodyStart = 0;
+
+	/**
+	 * Constructs a ResponseWriter writing to the given buffer.
+	 *
+	 * @param buffer
+	 * 		The buffer to write the responses to
+	 */
+	public ResponseWriter(ResponseBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Writes the status line of the given status code. Unknown status codes are written as "500 Server Error".
+	 *
+	 * @param statusCode
+	 * 		The status code of the response
+	 */
+	public void writeStatusLine(int statusCode) {
+		this.statusCode = isKnown(statusCode) ? statusCode : 500;
+		buffer.write(STATUS_LINES[this.statusCode]);
+	}
+
+	/**
+	 * Returns the status code of the last response written.
+	 *
+	 * @return
+	 * 		The status code of the last response (0 if none has been written)
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * Returns the number of bytes of the body of the last response written so far.
+	 *
+	 * @return
+	 * 		The length of the body in bytes
+	 */
+	public long getBodyLength() {
+		return buffer.getAppended() - bodyStart;
+	}
+
+	/**
+	 * Writes the headers every response has: "Date", containing the current time,
+	 * and "Connection: close" if the connection is closed after the response.
+	 */
+	public void writeGeneralHeaders() {
+		buffer.write(getDateLine());
+
+		if (closing) {
+			buffer.write(CONNECTION_CLOSE);
+		}
+	}
+
+	/**
+	 * Sets whether the connection is closed after the responses that are written next,
+	 * which is announced with a "Connection: close" header.
+	 *
+	 * @param closing
+	 * 		Whether the connection is closed after the response
+	 */
+	public void setClosing(boolean closing) {
+		this.closing = closing;
+	}
+
+	/**
+	 * Writes the "Content-Type" header.
+	 *
+	 * @param mime
+	 * 		The MIME type of the body
+	 */
+	public void writeContentType(String mime) {
+		for (int i = 0; i < MIME_TYPES.length; i++) {
+			if (MIME_TYPES[i].equals(mime)) {
+				buffer.write(CONTENT_TYPES[i]);
+				return;
+			}
+		}
+
+		writeHeader("Content-Type", mime);
+	}
+
+	/**
+	 * Writes the "Content-Length" header.
+	 *
+	 * @param length
+	 * 		The length of the body in bytes
+	 */
+	public void writeContentLength(long length) {
+		buffer.write(CONTENT_LENGTH);
+		writeDecimal(length);
+		buffer.write(CRLF);
+	}
+
+	/**
+	 * Writes the "Transfer-Encoding: chunked" header, used instead of "Content-Length" if the length of the body is unknown.
+	 */
+	public void writeChunked() {
+		buffer.write(CHUNKED);
+	}
+
+	/**
+	 * Writes the "Accept-Ranges" header advertising support for byte ranges.
+	 */
+	public void writeAcceptRanges() {
+		buffer.write(ACCEPT_RANGES);
+	}
+
+	/**
+	 * Writes the "Vary: Accept-Encoding" header of resources that may be sent compressed.
+	 */
+	public void writeVary() {
+		buffer.write(VARY);
+	}
+
+	/**
+	 * Writes a header with the given field name and value.
+	 *
+	 * @param name
+	 * 		The field name of the header
+	 * @param value
+	 * 		The value of the header
+	 */
+	public void writeHeader(String name, String value) {
+		buffer.write((name + ": " + value + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	/**
+	 * Writes the empty line ending the header section.
+	 */
+	public void endHeaders() {
+		buffer.write(CRLF);
+		bodyStart = buffer.getAppended();
+	}
+
+	/**
+	 * Writes the given encoded headers (each ending with CRLF), followed by the empty line ending the header section.
+	 *
+	 * @param headers
+	 * 		The encoded headers, including the empty line ending the header section
+	 */
+	public void endHeaders(byte[] headers) {
+		buffer.write(headers);
+		bodyStart = buffer.getAppended();
+	}
+
+	/**
+	 * Returns the encoded error page of the given status code. The returned array is shared and must not be modified.
+	 *
+	 * @param statusCode
+	 * 		The status code of the response
+	 *
+	 * @return
+	 * 		The encoded HTML page describing the status
+	 */
+	public static byte[] getErrorPage(int statusCode) {
+		return ERROR_PAGES[isKnown(statusCode) ? statusCode : 500];
+	}
+
+	/**
+	 * Encodes the complete "503 Service Unavailable" response sent when the server is overloaded, so it can be
+	 * written as is without any work. It has no "Date" header, which is optional for server errors, and it asks
+	 * the client to retry after the given number of seconds. The connection is closed after the response.
+	 *
+	 * @param retryAfter
+	 * 		The number of seconds after which the client may retry
+	 *
+	 * @return
+	 * 		The encoded response
+	 */
+	public static byte[] encodeServiceUnavailable(int retryAfter) {
+		byte[] page = ERROR_PAGES[503];
+		byte[] headers = ("HTTP/1.1 503 Service Unavailable\r\n"
+			+ "Retry-After: " + retryAfter + "\r\n"
+			+ "Connection: close\r\n"
+			+ "Content-Type: text/html\r\n"
+			+ "Content-Length: " + page.length + "\r\n"
+			+ "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+		byte[] response = new byte[headers.length + page.length];
+		System.arraycopy(headers, 0, response, 0, headers.length);
+		System.arraycopy(page, 0, response, headers.length, page.length);
+
+		return response;
+	}
+
+	/**
+	 * Returns the reason phrase of the given status code.
+	 *
+	 * @param statusCode
+	 * 		The status code
+	 *
+	 * @return
+	 * 		The reason phrase of the given status code ("Server Error" for unknown status codes)
+	 */
+	public static String getReasonPhrase(int statusCode) {
+		switch (statusCode) {
+		case 200:
+			return "OK";
+
+		case 206:
+			return "Partial Content";
+
+		case 304:
+			return "Not Modified";
+
+		case 400:
+			return "Bad Request";
+
+		case 404:
+			return "Not Found";
+
+		case 412:
+			return "Precondition Failed";
+
+		case 416:
+			return "Range Not Satisfiable";
+
+		case 429:
+			return "Too Many Requests";
+
+		case 501:
+			return "Not Implemented";
+
+		case 503:
+			return "Service Unavailable";
+
+		case 500:
+		default:
+			return "Server Error";
+		}
+	}
+
+	/**
+	 * Returns the given time as an HTTP date (e.g. "Sun, 06 Nov 1994 08:49:37 GMT").
+	 *
+	 * @param time
+	 * 		The time in milliseconds since the epoch
+	 *
+	 * @return
+	 * 		The formatted date
+	 */
+	public static String formatDate(long time) {
+		return HTTP_DATE.format(Instant.ofEpochMilli(time));
+	}
+
+	/**
+	 * Parses the given HTTP date (e.g. "Sun, 06 Nov 1994 08:49:37 GMT"). Clients usually send the same date
+	 * many times (e.g. in "If-Modified-Since"), so the last parsed date is kept and not parsed again.
+	 *
+	 * @param date
+	 * 		The date to parse
+	 *
+	 * @return
+	 * 		The time in milliseconds since the epoch or -1 if the date is invalid
+	 */
+	public static long parseDate(String date) {
+		ParsedDate parsed = parsedDate;
+
+		if (!parsed.date.equals(date)) {
+			long time;
+
+			try {
+				time = ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+			} catch (DateTimeParseException e) {
+				time = -1;
+			}
+
+			parsed = new ParsedDate(date, time);
+			parsedDate = parsed;
+		}
+
+		return parsed.time;
+	}
+
+	/**
+	 * Writes the given non-negative number in decimal notation, without allocating.
+	 *
+	 * @param value
+	 * 		The number to write
+	 */
+	private void writeDecimal(long value) {
+		int i = digits.length;
+
+		do {
+			digits[--i] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+
+		buffer.write(digits, i, digits.length - i);
+	}
+
+	/**
+	 * Returns whether the given status code has a pre-encoded status line.
+	 */
+	private static boolean isKnown(int statusCode) {
+		return statusCode >= 0 && statusCode < STATUS_LINES.length && STATUS_LINES[statusCode] != null;
+	}
+
+	/**
+	 * Returns the encoded "Date" header of the current second, encoding it again if the second has passed.
+	 * Concurrent callers may both encode it, which is harmless.
+	 *
+	 * @return
+	 * 		The encoded "Date" header
+	 */
+	private static byte[] getDateLine() {
+		long second = System.currentTimeMillis() / 1000;
+		DateLine line = dateLine;
+
+		if (line.second != second) {
+			String date = "Date: " + formatDate(second * 1000) + "\r\n";
+
+			line = new DateLine(second, date.getBytes(StandardCharsets.US_ASCII));
+			dateLine = line;
+		}
+
+		return line.bytes;
+	}
+
+	/**
+	 * A date header value and the time it was parsed to.
+	 */
+	private static class ParsedDate {
+
+		private final String date;
+		private final long time;
+
+		private ParsedDate(String date, long time) {
+			this.date = date;
+			this.time = time;
+		}
+	}
+
+	/**
+	 * An encoded "Date" header and the second it was encoded for.
+	 */
+	private static class DateLine {
+
+		private final long second;
+		private final byte[] bytes;
+
+		private DateLine(long second, byte[] bytes) {
+			this.second = second;
+			this.bytes = bytes;
+		}
+	}
+}
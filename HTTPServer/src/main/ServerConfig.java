@@ -0,0 +1,186 @@
+package main;
+
+import java.util.HashMap;
+
+/**
+ * Represents the configuration of the server, as given on the command line. An instance contains:<br><br>
+ * <ul>
+ *  <li>The directory in 'files/' representing the web server (e.g. "site")</li>
+ *  <li>The port number to listen on (default 8000)</li>
+ *  <li>A number of named options (e.g. "--transport=nio")</li>
+ * </ul>
+ * <br>
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class ServerConfig {
+
+	private String directory;
+	private int port = 8000;
+	private HashMap<String, String> options = new HashMap<>();
+
+	/**
+	 * Constructs a ServerConfig from the given command-line arguments.
+	 *
+	 * The first argument that is not an option is the directory, the second one the port number.
+	 * Options are given as "--name=value" or simply "--name" (which means "--name=true").
+	 *
+	 * @param args
+	 * 		The command-line arguments
+	 *
+	 * @throws IllegalArgumentException
+	 * 		If the arguments are invalid
+	 */
+	public ServerConfig(String[] args) throws IllegalArgumentException {
+		int positional = 0;
+
+		for (String arg : args) {
+			if (arg.startsWith("--")) {
+				int index = arg.indexOf("=");
+
+				if (index < 0) {
+					options.put(arg.substring(2), "true");
+				} else {
+					options.put(arg.substring(2, index), arg.substring(index + 1));
+				}
+			}
+			else if (positional == 0) {
+				directory = arg;
+				positional++;
+			}
+			else if (positional == 1) {
+				port = parseInt("port", arg);
+				positional++;
+			}
+			else {
+				throw new IllegalArgumentException("unexpected argument '" + arg + "'.");
+			}
+		}
+
+		if (directory == null) {
+			throw new IllegalArgumentException("expected 1 argument containing directory in 'files/'.");
+		}
+	}
+
+	/**
+	 * Returns the relative path of the local web server (e.g. "files/site").
+	 *
+	 * @return
+	 * 		The relative path of the local web server
+	 */
+	public String getPath() {
+		return "files/" + directory;
+	}
+
+	/**
+	 * Returns the port number the server listens on.
+	 *
+	 * @return
+	 * 		The port number
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Returns the value of the given option.
+	 *
+	 * @param name
+	 * 		The name of the option
+	 * @param defaultValue
+	 * 		The value to return if the option is absent
+	 *
+	 * @return
+	 * 		The value of the given option or the given default value if absent
+	 */
+	public String getOption(String name, String defaultValue) {
+		String value = options.get(name);
+		return value == null ? defaultValue : value;
+	}
+
+	/**
+	 * Returns the value of the given option as an integer.
+	 *
+	 * @param name
+	 * 		The name of the option
+	 * @param defaultValue
+	 * 		The value to return if the option is absent
+	 *
+	 * @return
+	 * 		The value of the given option or the given default value if absent
+	 *
+	 * @throws IllegalArgumentException
+	 * 		If the value is not an integer
+	 */
+	public int getIntOption(String name, int defaultValue) throws IllegalArgumentException {
+		String value = options.get(name);
+		return value == null ? defaultValue : parseInt(name, value);
+	}
+
+	/**
+	 * Returns the value of the given option as a long integer.
+	 *
+	 * @param name
+	 * 		The name of the option
+	 * @param defaultValue
+	 * 		The value to return if the option is absent
+	 *
+	 * @return
+	 * 		The value of the given option or the given default value if absent
+	 *
+	 * @throws IllegalArgumentException
+	 * 		If the value is not an integer
+	 */
+	public long getLongOption(String name, long defaultValue) throws IllegalArgumentException {
+		String value = options.get(name);
+
+		if (value == null) {
+			return defaultValue;
+		}
+
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("invalid value '" + value + "' for " + name + ".");
+		}
+	}
+
+	/**
+	 * Returns the value of the given option as a boolean.
+	 *
+	 * @param name
+	 * 		The name of the option
+	 * @param defaultValue
+	 * 		The value to return if the option is absent
+	 *
+	 * @return
+	 * 		The value of the given option or the given default value if absent
+	 */
+	public boolean getBooleanOption(String name, boolean defaultValue) {
+		String value = options.get(name);
+		return value == null ? defaultValue : value.equals("true");
+	}
+
+	/**
+	 * Parses the given value of the given option as an integer.
+	 *
+	 * @param name
+	 * 		The name of the option (used in the error message)
+	 * @param value
+	 * 		The value to parse
+	 *
+	 * @return
+	 * 		The parsed integer
+	 *
+	 * @throws IllegalArgumentException
+	 * 		If the value is not an integer
+	 */
+	private static int parseInt(String name, String value) throws IllegalArgumentException {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("invalid value '" + value + "' for " + name + ".");
+		}
+	}
+}
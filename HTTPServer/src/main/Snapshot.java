@@ -0,0 +1,541 @@
+package main;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Represents a packed snapshot of a document root: a single file holding every file of the directory with a sorted
+ * index of their paths, their entity tags, their precomputed entity headers and (optionally) a gzip variant of every
+ * compressible file. The server maps the snapshot into memory when it starts ("--snapshot=FILE") and answers GET and
+ * HEAD requests from views of the mapped file, so no file is opened, read or even looked up per request, and a
+ * document root of many small files does not have to be read or indexed at startup.
+ *
+ * The snapshot is a build step: it does not see later changes of the directory. Requests for files it does not
+ * contain fall through to the document root, and so do requests for files the server has written since (PUT/POST).
+ *
+ * The file consists of a header ("HTTPSNAP", the version and the number of entries), the entries sorted by path
+ * and then the metadata and the bodies. An entry is a fixed-size record of offsets and lengths, so an entry is
+ * found by a binary search of the mapped file. A directory ("/sub/") has an entry of its own, sharing the body of
+ * its "index.html". The snapshot is limited to 2 GB, the largest buffer that can be mapped.
+ *
+ * Usage: java main.Snapshot DIRECTORY [--output=FILE] [--gzip]<br>
+ * where DIRECTORY is a directory in 'files/' (e.g. "site"); the snapshot is written to "files/DIRECTORY.snapshot" by default.
+ *
+ * @author Bauwen Demol (r0583318)
+ * @author Jorik Jooken (r0588270)
+ */
+public class Snapshot {
+
+	private static final byte[] MAGIC = "HTTPSNAP".getBytes(StandardCharsets.US_ASCII);
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+	private static final int RECORD_SIZE = 64;
+
+	// an entry of a path that has been written by the server, so it is no longer served from the snapshot
+
+	private static final Entry OVERRIDDEN = new Entry(null, null, null, null, null);
+
+	private final MappedByteBuffer map;
+	private final int count;
+	private final AtomicReferenceArray<Entry> entries;
+
+	/**
+	 * The main function of the snapshot program: packs a document root into a snapshot.
+	 *
+	 * @param args
+	 * 		The command-line arguments
+	 *
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		ServerConfig config;
+
+		try {
+			config = new ServerConfig(args);
+		} catch (IllegalArgumentException e) {
+			System.out.println("Error: " + e.getMessage());
+			return;
+		}
+
+		String output = config.getOption("output", config.getPath() + ".snapshot");
+		int count = pack(config.getPath(), output, config.getBooleanOption("gzip", false));
+
+		System.out.println("Packed " + count + " files into '" + output + "' (" + new File(output).length() + " bytes).");
+	}
+
+	/**
+	 * Packs the given directory into a snapshot.
+	 *
+	 * @param directory
+	 * 		The relative path of the document root (e.g. "files/site")
+	 * @param output
+	 * 		The path of the snapshot file to write
+	 * @param gzip
+	 * 		Whether to add a gzip variant of every compressible file (if it is smaller)
+	 *
+	 * @return
+	 * 		The number of packed files
+	 *
+	 * @throws IOException
+	 */
+	public static int pack(String directory, String output, boolean gzip) throws IOException {
+		Path root = Paths.get(directory);
+		List<Path> files = new ArrayList<>();
+
+		try (Stream<Path> stream = Files.walk(root)) {
+			stream.filter(Files::isRegularFile).forEach(files::add);
+		}
+
+		// the entries are sorted by the bytes of their paths, as they are compared when searching
+
+		TreeMap<String, Packed> sorted = new TreeMap<>();
+
+		for (Path file : files) {
+			String name = "/" + root.relativize(file).toString().replace(File.separatorChar, '/');
+			Packed packed = new Packed(file, name, gzip);
+
+			sorted.put(toKey(name), packed);
+
+			if (name.endsWith("/index.html")) {
+				sorted.put(toKey(name.substring(0, name.length() - "index.html".length())), packed);
+			}
+		}
+
+		// lay out the file: the header and the records, then the metadata of every entry, then the bodies
+
+		long position = HEADER_SIZE + (long) sorted.size() * RECORD_SIZE;
+		ByteBuffer records = ByteBuffer.allocate(HEADER_SIZE + sorted.size() * RECORD_SIZE);
+		ByteArrayOutputStream metadata = new ByteArrayOutputStream();
+		List<String> names = new ArrayList<>(sorted.keySet());
+		records.position(HEADER_SIZE);
+
+		for (String key : names) {
+			Packed packed = sorted.get(key);
+			byte[] name = key.getBytes(StandardCharsets.ISO_8859_1);
+
+			records.putLong(position + metadata.size());
+			records.putInt(name.length);
+			records.putInt(packed.etag.length);
+			records.putInt(packed.headers.length);
+			records.putInt((packed.gzip != null) ? packed.gzipHeaders.length : 0);
+			records.putLong(packed.lastModified);
+			records.putLong(0);
+			records.putLong(packed.size);
+			records.putLong(0);
+			records.putLong((packed.gzip != null) ? packed.gzip.length : 0);
+
+			metadata.write(name);
+			metadata.write(packed.etag);
+			metadata.write(packed.headers);
+
+			if (packed.gzip != null) {
+				metadata.write(packed.gzipHeaders);
+			}
+		}
+
+		position += metadata.size();
+
+		for (Packed packed : sorted.values()) {
+			if (packed.offset < 0) {
+				packed.offset = position;
+				position += packed.size;
+
+				if (packed.gzip != null) {
+					packed.gzipOffset = position;
+					position += packed.gzip.length;
+				}
+			}
+		}
+
+		if (position > Integer.MAX_VALUE) {
+			throw new IOException("the snapshot would be larger than 2 GB");
+		}
+
+		// fill in the offsets of the bodies, now they are known
+
+		for (int i = 0; i < names.size(); i++) {
+			Packed packed = sorted.get(names.get(i));
+			int record = HEADER_SIZE + i * RECORD_SIZE;
+
+			records.putLong(record + 32, packed.offset);
+			records.putLong(record + 48, packed.gzipOffset);
+		}
+
+		records.position(0);
+		records.put(MAGIC);
+		records.putInt(VERSION);
+		records.putInt(names.size());
+		records.position(0);
+
+		try (FileChannel channel = FileChannel.open(Paths.get(output), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			write(channel, records);
+			write(channel, ByteBuffer.wrap(metadata.toByteArray()));
+
+			for (Packed packed : new LinkedHashSet<>(sorted.values())) {
+				try (FileChannel input = FileChannel.open(packed.file, StandardOpenOption.READ)) {
+					channel.position(packed.offset);
+
+					for (long done = 0; done < packed.size; ) {
+						long count = input.transferTo(done, packed.size - done, channel);
+
+						if (count <= 0) {
+							throw new IOException("file '" + packed.file + "' truncated while packing");
+						}
+
+						done += count;
+					}
+				}
+
+				if (packed.gzip != null) {
+					channel.position(packed.gzipOffset);
+					write(channel, ByteBuffer.wrap(packed.gzip));
+				}
+			}
+		}
+
+		return files.size();
+	}
+
+	/**
+	 * Opens the snapshot file at the given path, mapping it into memory.
+	 *
+	 * @param path
+	 * 		The path of the snapshot file
+	 *
+	 * @throws IOException
+	 * 		If the file cannot be read or is not a snapshot
+	 */
+	public Snapshot(String path) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("larger than 2 GB");
+			}
+
+			this.map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (map.limit() < HEADER_SIZE || map.get(i) != MAGIC[i]) {
+				throw new IOException("not a snapshot");
+			}
+		}
+
+		if (map.getInt(8) != VERSION) {
+			throw new IOException("unsupported version " + map.getInt(8));
+		}
+
+		this.count = map.getInt(12);
+		this.entries = new AtomicReferenceArray<>(count);
+	}
+
+	/**
+	 * Returns the number of entries of the snapshot.
+	 *
+	 * @return
+	 * 		The number of entries (including those of directories)
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Returns the entry of the given request path.
+	 *
+	 * @param path
+	 * 		The request path (e.g. "/sub/t.txt" or "/sub/")
+	 *
+	 * @return
+	 * 		The entry or null if the snapshot does not contain the path (anymore)
+	 */
+	public Entry get(String path) {
+		int index = find(path);
+
+		if (index < 0) {
+			return null;
+		}
+
+		Entry entry = entries.get(index);
+
+		if (entry == null) {
+			entries.compareAndSet(index, null, load(index));
+			entry = entries.get(index);
+		}
+
+		return (entry == OVERRIDDEN) ? null : entry;
+	}
+
+	/**
+	 * Stops serving the file with the given name from the snapshot, as the server has written it.
+	 * If it is an "index.html", its directory is no longer served either.
+	 *
+	 * @param name
+	 * 		The name of the file relative to the document root (e.g. "/sub/index.html")
+	 */
+	public void override(String name) {
+		int index = find(name);
+
+		if (index >= 0) {
+			entries.set(index, OVERRIDDEN);
+		}
+
+		if (name.endsWith("/index.html")) {
+			override(name.substring(0, name.length() - "index.html".length()));
+		}
+	}
+
+	/**
+	 * Returns the index of the record of the given path, by a binary search of the sorted records.
+	 *
+	 * @return
+	 * 		The index or -1 if there is no such record
+	 */
+	private int find(String path) {
+		int low = 0;
+		int high = count - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int comparison = compare(middle, path);
+
+			if (comparison < 0) {
+				low = middle + 1;
+			}
+			else if (comparison > 0) {
+				high = middle - 1;
+			}
+			else {
+				return middle;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Compares the path of the record with the given index to the given path, byte by character.
+	 */
+	private int compare(int index, String path) {
+		int record = HEADER_SIZE + index * RECORD_SIZE;
+		int offset = (int) map.getLong(record);
+		int length = map.getInt(record + 8);
+
+		for (int i = 0; i < length && i < path.length(); i++) {
+			int difference = (map.get(offset + i) & 0xFF) - path.charAt(i);
+
+			if (difference != 0) {
+				return difference;
+			}
+		}
+
+		return length - path.length();
+	}
+
+	/**
+	 * Reads the entry with the given index from the mapped file.
+	 */
+	private Entry load(int index) {
+		int record = HEADER_SIZE + index * RECORD_SIZE;
+		int offset = (int) map.getLong(record);
+		int nameLength = map.getInt(record + 8);
+		int etagLength = map.getInt(record + 12);
+		int headersLength = map.getInt(record + 16);
+		int gzipHeadersLength = map.getInt(record + 20);
+		long lastModified = map.getLong(record + 24);
+
+		String name = getString(offset, nameLength);
+		String etag = getString(offset + nameLength, etagLength);
+		byte[] headers = getBytes(offset + nameLength + etagLength, headersLength);
+		CachedContent content = new CachedContent(slice(map.getLong(record + 32), map.getLong(record + 40)), headers, lastModified);
+		CachedContent gzip = null;
+
+		if (gzipHeadersLength > 0) {
+			byte[] gzipHeaders = getBytes(offset + nameLength + etagLength + headersLength, gzipHeadersLength);
+			gzip = new CachedContent(slice(map.getLong(record + 48), map.getLong(record + 56)), gzipHeaders, lastModified);
+		}
+
+		String mime = name.endsWith("/") ? "text/html" : FileInfo.getMIME(name);
+
+		return new Entry(mime, content, etag, gzip, (gzip != null) ? ETagCache.getEncodedTag(etag, "gzip") : null);
+	}
+
+	/**
+	 * Returns a view of the given region of the mapped file.
+	 */
+	private ByteBuffer slice(long offset, long length) {
+		ByteBuffer view = map.duplicate();
+		view.position((int) offset);
+		view.limit((int) (offset + length));
+
+		return view.slice();
+	}
+
+	/**
+	 * Returns a copy of the given region of the mapped file.
+	 */
+	private byte[] getBytes(int offset, int length) {
+		byte[] bytes = new byte[length];
+
+		for (int i = 0; i < length; i++) {
+			bytes[i] = map.get(offset + i);
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * Returns the given region of the mapped file as a string of ISO-8859-1 characters.
+	 */
+	private String getString(int offset, int length) {
+		return new String(getBytes(offset, length), StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Returns the given path as a string of the bytes of its UTF-8 encoding (one character per byte),
+	 * as the bytes of a request path are decoded.
+	 */
+	private static String toKey(String path) {
+		return new String(path.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Writes the given buffer to the given channel completely.
+	 */
+	private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * A resource of the snapshot, read from the mapped file the first time it is requested.
+	 */
+	public static class Entry {
+
+		private final String mime;
+		private final CachedContent content;
+		private final String etag;
+		private final CachedContent gzip;
+		private final String gzipTag;
+
+		private Entry(String mime, CachedContent content, String etag, CachedContent gzip, String gzipTag) {
+			this.mime = mime;
+			this.content = content;
+			this.etag = etag;
+			this.gzip = gzip;
+			this.gzipTag = gzipTag;
+		}
+
+		/**
+		 * Returns the MIME type of the resource.
+		 *
+		 * @return
+		 * 		The MIME type
+		 */
+		public String getMIME() {
+			return mime;
+		}
+
+		/**
+		 * Returns the resource, whose body is a view of the mapped file.
+		 *
+		 * @return
+		 * 		The resource
+		 */
+		public CachedContent getContent() {
+			return content;
+		}
+
+		/**
+		 * Returns the entity tag of the resource.
+		 *
+		 * @return
+		 * 		The entity tag, including the quotes
+		 */
+		public String getETag() {
+			return etag;
+		}
+
+		/**
+		 * Returns the gzip variant of the resource.
+		 *
+		 * @return
+		 * 		The gzip variant or null if the snapshot has none
+		 */
+		public CachedContent getGzipContent() {
+			return gzip;
+		}
+
+		/**
+		 * Returns the entity tag of the gzip variant of the resource.
+		 *
+		 * @return
+		 * 		The entity tag or null if the snapshot has no gzip variant
+		 */
+		public String getGzipTag() {
+			return gzipTag;
+		}
+	}
+
+	/**
+	 * A file being packed: its metadata, and its gzip variant if it has one.
+	 */
+	private static class Packed {
+
+		private final Path file;
+		private final long size;
+		private final long lastModified;
+		private final byte[] etag;
+		private final byte[] headers;
+		private final byte[] gzip;
+		private final byte[] gzipHeaders;
+
+		private long offset = -1;
+		private long gzipOffset = 0;
+
+		private Packed(Path file, String name, boolean gzip) throws IOException {
+			BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+			String mime = FileInfo.getMIME(name);
+
+			this.file = file;
+			this.size = attributes.size();
+			this.lastModified = attributes.lastModifiedTime().toMillis();
+			this.etag = ETagCache.hash(file.toFile()).getBytes(StandardCharsets.US_ASCII);
+			this.headers = ContentCache.encodeHeaders(mime, null, size);
+
+			byte[] compressed = null;
+
+			if (gzip && ContentCache.isCompressible(mime) && size <= Integer.MAX_VALUE) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) (size / 4 + 64));
+
+				try (OutputStream output = new GZIPOutputStream(bytes)) {
+					Files.copy(file, output);
+				}
+
+				if (bytes.size() < size) {
+					compressed = bytes.toByteArray();
+				}
+			}
+
+			this.gzip = compressed;
+			this.gzipHeaders = (compressed != null) ? ContentCache.encodeHeaders(mime, "gzip", compressed.length) : null;
+		}
+	}
+}